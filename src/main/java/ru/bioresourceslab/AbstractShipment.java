@@ -1,15 +1,117 @@
 package ru.bioresourceslab;
 
 import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
 import javax.swing.event.EventListenerList;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static ru.bioresourceslab.ShipmentEvent.*;
 
+/** Основа отправки: слушатели, счетчик изменений и единственный поток-писатель.
+ * All changes of a shipment are made on the event dispatch thread, one after another: its event queue is
+ * the command queue of the shipment. Mutators called from other threads put themselves to the queue and wait,
+ * so models, indexes and events are never changed concurrently, listeners are always called on the EDT,
+ * and the EDT (renderers) reads everything without locks. Queries of other threads are run on the writer too
+ * (indexes are rebuilt by queries), or read copies made by the writer: the shipment has no locks.
+ * A shipment used by one thread only (e.g. in headless mode) needs no EDT: with CALLER_WRITER every change
+ * is run at once on the thread which makes it. */
+
 public abstract class AbstractShipment {
     /** list of listeners */
     protected EventListenerList listenerList = new EventListenerList();
 
+    /** count of fired events, i.e. changes of the shipment */
+    private final AtomicLong changes = new AtomicLong();
+
+    /** Get count of changes since creation; it differs from a previous value if the shipment was changed */
+    public long getChangesCount() {
+        return changes.get();
+    }
+
+    /** Count a change which fires no event (e.g. of the shipment number), so it is saved as well */
+    protected void changed() {
+        changes.incrementAndGet();
+    }
+
+    /** Thread where changes of a shipment are made */
+    public interface Writer {
+        /** Returns TRUE if the current thread is the writer */
+        boolean isCurrent();
+
+        /** Run {@param command} on the writer and wait for its end; called on other threads only */
+        void runAndWait(Runnable command) throws InterruptedException, InvocationTargetException;
+    }
+
+    /** The event dispatch thread is the writer (default): the shipment may be shown and changed by any thread */
+    public static final Writer EDT_WRITER = new Writer() {
+        @Override
+        public boolean isCurrent() {
+            return SwingUtilities.isEventDispatchThread();
+        }
+
+        @Override
+        public void runAndWait(Runnable command) throws InterruptedException, InvocationTargetException {
+            SwingUtilities.invokeAndWait(command);
+        }
+    };
+
+    /** Any calling thread is the writer: for a shipment used by one thread only, without EDT */
+    public static final Writer CALLER_WRITER = new Writer() {
+        @Override
+        public boolean isCurrent() {
+            return true;
+        }
+
+        @Override
+        public void runAndWait(Runnable command) {
+            command.run();
+        }
+    };
+
+    private volatile Writer writer = EDT_WRITER;
+
+    /** Set the writer thread of this shipment; call before the shipment is used */
+    public void setWriter(@NotNull Writer writer) {
+        this.writer = writer;
+    }
+
+    /** Returns TRUE if the current thread is the writer of this shipment */
+    public boolean isWriter() {
+        return writer.isCurrent();
+    }
+
+    /** Run change {@param command} on the writer thread and wait for its end */
+    protected void write(Runnable command) {
+        if (isWriter()) {
+            command.run();
+            return;
+        }
+        try {
+            writer.runAndWait(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** Get result of {@param query} made on the writer thread, i.e. between changes */
+    protected <T> T read(Supplier<T> query) {
+        if (isWriter()) return query.get();
+        Object[] result = new Object[1];
+        write(() -> result[0] = query.get());
+        @SuppressWarnings("unchecked") T value = (T) result[0];
+        return value;
+    }
+
     /** add a listener */
     public void addListener(ShipmentListener listener) {
         listenerList.add(ShipmentListener.class, listener);
@@ -27,13 +129,24 @@ public abstract class AbstractShipment {
      * @param target - index of sample, which is modified (RECOMMEND: -1 if there are no samples left) */
     protected void fireEvent(Shipment source, @MagicConstant(intValues =
             {EVENT_SAMPLE_ADDED, EVENT_SAMPLE_REMOVED, EVENT_SAMPLE_MOVED, EVENT_SAMPLE_CHANGED}) int typeOfEvent, int target) {
+        fireEvent(source, typeOfEvent, target, target, Collections.emptyList(), Collections.emptyList());
+    }
+
+    /** Call event handlers telling the changed samples
+     * @param first - index of the first sample which may be shifted by the change
+     * @param samples - samples put to the list or changed
+     * @param removed - samples removed from the list or replaced */
+    protected void fireEvent(Shipment source, @MagicConstant(intValues =
+            {EVENT_SAMPLE_ADDED, EVENT_SAMPLE_REMOVED, EVENT_SAMPLE_MOVED, EVENT_SAMPLE_CHANGED}) int typeOfEvent, int target,
+                             int first, List<Sample> samples, List<Sample> removed) {
+        changed();
         Object[] listeners = listenerList.getListenerList();
         ShipmentEvent e = null;
 
         for (int i = listeners.length - 2; i >= 0; i -= 2) {
             if (listeners[i] == ShipmentListener.class) {
                 if (e == null) {
-                    e = new ShipmentEvent(source, target);
+                    e = new ShipmentEvent(source, target, first, samples, removed);
                 }
                 ((ShipmentListener)listeners[i+1]).defaultAction(e);
                 switch (typeOfEvent) {
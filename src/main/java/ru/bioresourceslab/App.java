@@ -5,6 +5,11 @@ import javax.swing.*;
 public class App {
 
     public static void main(String[] args) {
+        // command line mode: no windows, no recognizer
+        if (args.length > 0) {
+            HeadlessApp.main(args);
+            return;
+        }
         SwingUtilities.invokeLater(() -> {
             AppUI mainFrame = new AppUI();
             mainFrame.setVisible(true);
@@ -15,7 +15,6 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,6 +35,8 @@ public class AppUI extends JFrame {
     private JButton saveMapButton;
     private JButton debugButton;
     private JButton startButton;
+    private JButton cancelImportButton;
+    private JProgressBar importProgressBar;
     private JComboBox<String> statusBox;
     private JLabel currentSampleLabel;
     private JLabel fromPosLabel;
@@ -43,6 +44,7 @@ public class AppUI extends JFrame {
     private JLabel boxesCountLabel;
     private JLabel currentPosLabel;
     private JTextField shipmentNumberField;
+    private JTextField scanField;
     private MapTable mapTable;
 
     public static final int UI_SAMPLE_INFO = 0x01;
@@ -52,6 +54,9 @@ public class AppUI extends JFrame {
 
     private Shipment shipment;
     private RecognizerThread recThread;
+    private ImportWorker importWorker;
+    private AutosaveScheduler autosave;
+    private ShipmentValidator validator;
 
     // debug variables
     final Logger log = Logger.getLogger("SPA Logger");
@@ -79,7 +84,11 @@ public class AppUI extends JFrame {
             public void windowClosing(WindowEvent e) {
                 super.windowClosing(e);
                 if (recThread != null) recThread.close();
-                if (shipment != null) shipment.saveListToFile();
+                if (autosave != null) autosave.close();
+                if (shipment != null) {
+                    shipment.autosave();
+                    shipment.close();
+                }
             }
         });
 
@@ -127,12 +136,11 @@ public class AppUI extends JFrame {
                 @Override
                 protected void analyze(String command) {
                     int index = samplesList.getSelectedIndex();
-                    // здесь мне не нужен Sample, если будет функция shipment.setSampleWeight
-                    Sample sample = shipment.getSample(index);
 
                     // if weight was recognized, setWeight and go next sample
                     if (this.interpretWeight(command)) {
-                        sample.setWeight(result);
+                        shipment.setSampleWeight(index, result);
+                        Sample sample = shipment.getSample(index);
                         // output result in status-bar
                         log.fine(sample.get(SAMPLE_CODE | Sample.SAMPLE_WEIGHT));
 
@@ -242,6 +250,7 @@ public class AppUI extends JFrame {
         String fColumn = properties.getProperty("list.column");
         Sample fIDs = new Sample(fCode, fWeight, fStorage, fRack, fBox, fRow, fColumn);
         shipment.setIdentifiers(fIDs);
+        shipment.setStreamingImport(!"false".equals(properties.getProperty("import.streaming")));
 
         // loading weight range
         double lower = parseNumDef(properties.getProperty("range.lower"), 0.0);
@@ -265,7 +274,7 @@ public class AppUI extends JFrame {
 
             @Override
             public void dataChanged(ShipmentEvent source) {
-                refreshUI(UI_SAMPLE_INFO);
+                refreshUI(UI_SAMPLE_INFO | UI_BOX_COUNTER);
             }
 
             @Override
@@ -273,11 +282,31 @@ public class AppUI extends JFrame {
                 refreshUI(UI_SELECTION, source.getTarget());
             }
         });
+        // listeners are called from the last added one, so violations are checked before UI is refreshed
+        validator = new ShipmentValidator(shipment);
+        validator.setRanges(lower, upper);
 
 // initializing models
         mapTable.setModel(shipment.getMapModel());
         samplesList.setModel(shipment.getListModel());
 
+// restoring shipment from journal (after crash or previous session)
+        try {
+            ShipmentJournal journal = ShipmentJournal.open(new File("shipment.journal"), new File("shipment" + SnapshotFile.EXTENSION));
+            int restored = journal.replay(shipment);
+            if (restored > 0) {
+                shipmentNumberField.setText(shipment.getNumber());
+                log.info("Восстановлен список: " + restored + " образцов. ");
+            }
+            shipment.setJournal(journal);
+        } catch (IOException e) {
+            log.warning("Ошибка журнала: изменения не будут сохранены при сбое. ");
+        }
+
+        // periodic autosave; '0' turns it off
+        int autosaveInterval = parseNumDef(properties.getProperty("autosave.interval"), 60);
+        if (autosaveInterval > 0) autosave = new AutosaveScheduler(shipment, autosaveInterval);
+
 // initializing renderers&listeners on Table&List
         {
             // mapTable click listener
@@ -298,13 +327,17 @@ public class AppUI extends JFrame {
             // samplesList look&feel
             samplesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
             samplesList.setCellRenderer(new DefaultListCellRenderer() {
+                // one component paints all items
+                private final JCheckBox listItem = new JCheckBox();
+
                 @Override
                 public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
                     Sample sample = (value instanceof Sample) ? (Sample) value : null;
                     if (sample == null) return null;
 
-                    JCheckBox listItem = new JCheckBox(sample.get(SAMPLE_CODE | SAMPLE_LOCATION));
+                    listItem.setText(sample.get(SAMPLE_CODE | SAMPLE_LOCATION));
                     listItem.setSelected(sample.getPacked());
+                    listItem.setFont(list.getFont());
                     listItem.setBackground(isSelected ? list.getSelectionBackground() : list.getBackground());
                     return listItem;
                 }
@@ -362,7 +395,6 @@ public class AppUI extends JFrame {
             EditSampleUI addUI = new EditSampleUI(this, true, false);
             if (addUI.showModal()) {
                 ArrayList<Sample> list = addUI.getData();
-                Collections.reverse(list);
                 // set index to add/insert
                 int index;
                 if (addUI.isAdding()) {
@@ -407,9 +439,59 @@ public class AppUI extends JFrame {
 
         // load list
         loadListButton.addActionListener(e -> {
-            // Reminder msg
-            JOptionPane.showMessageDialog(this, "Проследите, чтобы случай не разбивался по разным коробкам!", "Уведомление", JOptionPane.INFORMATION_MESSAGE);
-            shipment.importList();
+            File file = shipment.chooseListFile();
+            if (file == null) return;
+            // the current list may be updated keeping packed statuses and weights
+            boolean merge = false;
+            if (shipment.getSamplesCount() > 0) {
+                int answer = JOptionPane.showConfirmDialog(this, "Обновить текущий список, сохранив отметки и веса?\n(\"Нет\" - заменить список полностью)",
+                        "Загрузка списка", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+                if ((answer == JOptionPane.CANCEL_OPTION) || (answer == JOptionPane.CLOSED_OPTION)) return;
+                merge = (answer == JOptionPane.YES_OPTION);
+            }
+            // samples of an updated list may be packed already, so only a new list is laid out
+            boolean newList = !merge;
+
+            importWorker = new ImportWorker(shipment, file, merge) {
+                @Override
+                protected void progress(int loaded) {
+                    importProgressBar.setString("Загружено: " + loaded);
+                }
+
+                @Override
+                protected void finished() {
+                    setImporting(false);
+                    log.fine(shipment.getFootprintReport());
+                    if (!newList || isCancelled()) return;
+                    // a restored session keeps its number and order of samples
+                    if (file.getName().toLowerCase().endsWith(SnapshotFile.EXTENSION)) {
+                        shipmentNumberField.setText(shipment.getNumber());
+                    } else {
+                        offerCaseLayout();
+                    }
+                }
+            };
+            setImporting(true);
+            importWorker.execute();
+        });
+
+        // cancel list loading
+        cancelImportButton.addActionListener(e -> {
+            if (importWorker != null) importWorker.cancel(false);
+        });
+
+        // find sample by scanned code: the scanner types the code and presses Enter
+        scanField.addActionListener(e -> {
+            String code = scanField.getText().trim();
+            scanField.selectAll();
+            if (code.isEmpty()) return;
+            int index = shipment.findByCode(code);
+            if (index < 0) {
+                log.warning("Образец " + code + " не найден. ");
+                return;
+            }
+            if (shipment.isRepeatedCode(code)) log.warning("Код " + code + " повторяется в списке. ");
+            refreshUI(UI_SAMPLE_INFO | UI_SELECTION, index);
         });
 
         // save map to file
@@ -504,7 +586,22 @@ public class AppUI extends JFrame {
         }
         // refresh boxCounter
         if ((flags & UI_BOX_COUNTER) != 0) {
-            boxesCountLabel.setText("Кол-во коробок: " + shipment.getBoxesCount());
+            BoxSummary box = shipment.getBoxSummary(shipment.getBoxIndex(index));
+            int violations = (validator == null) ? 0 : validator.getViolationsCount();
+            boxesCountLabel.setText("Кол-во коробок: " + shipment.getBoxesCount() + ", в коробке " + (box.getBox() + 1)
+                    + " упаковано " + box.getPackedCount() + " из " + box.getCount()
+                    + ((violations > 0) ? ", нарушений: " + violations : ""));
+            // the first violations are shown in the tooltip
+            if (violations > 0) {
+                StringBuilder tooltip = new StringBuilder("<html>");
+                for (Violation violation : validator.getViolations(20)) {
+                    tooltip.append(violation).append("<br>");
+                }
+                if (violations > 20) tooltip.append("...");
+                boxesCountLabel.setToolTipText(tooltip.toString());
+            } else {
+                boxesCountLabel.setToolTipText(null);
+            }
         }
         // refresh selection
         if ((flags & UI_SELECTION) != 0) {
@@ -522,6 +619,34 @@ public class AppUI extends JFrame {
         }
     }
 
+    // show layout of cases by boxes and apply it if user agrees; nothing is shown if the layout is not better
+    private void offerCaseLayout() {
+        CaseLayout layout = shipment.planCaseLayout();
+        if (layout.getSplitAfter() >= layout.getSplitBefore()) return;
+        StringBuilder preview = new StringBuilder();
+        for (int box = 0; box < layout.getBoxesCount(); box++) {
+            preview.append("Коробка ").append(box + 1).append(": ").append(layout.describeBox(box)).append('\n');
+        }
+        JTextArea previewArea = new JTextArea(preview.toString(), 15, 60);
+        previewArea.setEditable(false);
+        previewArea.setCaretPosition(0);
+        String message = "Случаев в разных коробках: " + layout.getSplitBefore() + ", после раскладки: " + layout.getSplitAfter()
+                + ((layout.getLargeCount() > 0) ? " (не помещаются в коробку: " + layout.getLargeCount() + ")" : "")
+                + ".\nРазложить образцы по коробкам?";
+        int answer = JOptionPane.showConfirmDialog(this, new Object[]{message, new JScrollPane(previewArea)},
+                "Раскладка по коробкам", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+        if (answer == JOptionPane.YES_OPTION) shipment.applyCaseLayout(layout);
+    }
+
+    // show/hide import progress and lock list loading while import is running
+    private void setImporting(boolean importing) {
+        loadListButton.setEnabled(!importing);
+        importProgressBar.setIndeterminate(importing);
+        importProgressBar.setString("Загрузка...");
+        importProgressBar.setVisible(importing);
+        cancelImportButton.setVisible(importing);
+    }
+
     // select next/previous (unpacked) sample in the list and return true, if the list is end may return to beginning
     private boolean itemSelect(boolean refresh, @MagicConstant(flags = {NEXT_DEFAULT, NEXT_REVERSED, NEXT_STOP_WHEN_END, NEXT_EVERY_ITEM}) int flags) {
         int index = samplesList.getSelectedIndex();
@@ -626,8 +751,9 @@ public class AppUI extends JFrame {
         panel2.add(label3, new GridConstraints(0, 0, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         shipmentNumberField = new JTextField();
         panel2.add(shipmentNumberField, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_SOUTHWEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_FIXED, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(60, -1), null, 0, false));
-        final Spacer spacer4 = new Spacer();
-        panel2.add(spacer4, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_WANT_GROW, 1, null, null, null, 0, false));
+        scanField = new JTextField();
+        scanField.setToolTipText("Поиск образца по коду (сканер)");
+        panel2.add(scanField, new GridConstraints(0, 2, 1, 1, GridConstraints.ANCHOR_WEST, GridConstraints.FILL_NONE, GridConstraints.SIZEPOLICY_WANT_GROW, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(150, -1), null, 0, false));
         final JPanel panel3 = new JPanel();
         panel3.setLayout(new GridBagLayout());
         mainPanel.add(panel3, new GridConstraints(0, 1, 1, 1, GridConstraints.ANCHOR_EAST, GridConstraints.FILL_VERTICAL, 1, GridConstraints.SIZEPOLICY_FIXED, null, new Dimension(-1, 28), null, 0, false));
@@ -713,6 +839,14 @@ public class AppUI extends JFrame {
         debugButton = new JButton();
         debugButton.setText("debug");
         panel4.add(debugButton, new GridConstraints(1, 2, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        importProgressBar = new JProgressBar();
+        importProgressBar.setStringPainted(true);
+        importProgressBar.setVisible(false);
+        panel4.add(importProgressBar, new GridConstraints(1, 0, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
+        cancelImportButton = new JButton();
+        cancelImportButton.setText("Отмена");
+        cancelImportButton.setVisible(false);
+        panel4.add(cancelImportButton, new GridConstraints(1, 1, 1, 1, GridConstraints.ANCHOR_CENTER, GridConstraints.FILL_HORIZONTAL, GridConstraints.SIZEPOLICY_CAN_SHRINK | GridConstraints.SIZEPOLICY_CAN_GROW, GridConstraints.SIZEPOLICY_FIXED, null, null, null, 0, false));
         saveMapButton = new JButton();
         saveMapButton.setIcon(new ImageIcon(getClass().getResource("/save16.png")));
         saveMapButton.setText("");
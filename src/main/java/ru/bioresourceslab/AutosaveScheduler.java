@@ -0,0 +1,54 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Периодическое автосохранение списка.
+ * Every change of the shipment is counted by its events. Once per interval the scheduler compares the counter
+ * with the one of the last save and saves the list in background only if it differs: a burst of changes
+ * costs one write, an unchanged shipment costs nothing. */
+
+public class AutosaveScheduler implements Closeable {
+    private final Logger log = Logger.getLogger("SPA Logger");
+    private final Shipment shipment;
+    private final ScheduledExecutorService timer;
+    private long saved;            // changes count of the last saved state
+
+    /** Start autosave of {@param shipment} every {@param interval} seconds */
+    public AutosaveScheduler(@NotNull Shipment shipment, int interval) {
+        this.shipment = shipment;
+        this.saved = shipment.getChangesCount();
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SPA autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.SECONDS);
+    }
+
+    // save the list if it was changed since the last save
+    private void check() {
+        long changes = shipment.getChangesCount();
+        if (changes == saved) return;
+        try {
+            if (shipment.autosave().get()) saved = changes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.log(Level.WARNING, "Ошибка автосохранения: " + e.getCause().getMessage());
+        }
+    }
+
+    /** Stop autosave; the list being saved is not interrupted */
+    @Override
+    public void close() {
+        timer.shutdown();
+    }
+}
@@ -0,0 +1,115 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** Индекс сводок по коробкам отправки (see BoxSummary).
+ * Boxes are ranges of list positions of BoxOptions capacity. A change of weight, status or replacement of a sample
+ * marks its box as stale, and only this box is summed again on the next request, so the cost of a change
+ * doesn't depend on the size of the shipment. Insertions and removals shift samples between boxes: they mark
+ * the index as invalid from the box of the changed position (as in CaseIndex).
+ * The index is used on the writer thread of the owning shipment. */
+
+class BoxIndex {
+    private final ListModel<Sample> samples;
+    private final BoxOptions boxOptions;
+    private int[] counts = new int[4];
+    private int[] packed = new int[4];
+    private int[] weighed = new int[4];
+    private double[] sums = new double[4];
+    private double[] mins = new double[4];
+    private double[] maxs = new double[4];
+    private int[] cases = new int[4];
+    private int[] masks = new int[0];       // buffer for counting distinct cases
+    private final BitSet stale = new BitSet();
+    private int valid = 0;                  // boxes [0, valid) are indexed
+
+    BoxIndex(@NotNull ListModel<Sample> samples, @NotNull BoxOptions boxOptions) {
+        this.samples = samples;
+        this.boxOptions = boxOptions;
+    }
+
+    /** Mark the index as invalid from the box of {@param index}: samples there were inserted or removed.
+     * Call with '0' if box options are changed */
+    void invalidate(int index) {
+        int box = Math.max(index, 0) / boxOptions.getCapacity();
+        if (box < valid) valid = box;
+    }
+
+    /** Sample at {@param index} is changed (weight, status or the sample itself) */
+    void changed(int index) {
+        int box = index / boxOptions.getCapacity();
+        if ((index >= 0) && (box < valid)) stale.set(box);
+    }
+
+    /** Get summary of {@param box} */
+    BoxSummary get(int box) {
+        update();
+        if ((box < 0) || (box >= valid)) return new BoxSummary(box, 0, 0, 0, 0, Double.NaN, Double.NaN, 0);
+        return new BoxSummary(box, counts[box], packed[box], weighed[box], sums[box], mins[box], maxs[box], cases[box]);
+    }
+
+    // sum boxes which are stale or not indexed yet
+    private void update() {
+        int boxes = boxOptions.getBoxesCount(samples.getSize());
+        if (counts.length < boxes) {
+            int capacity = Math.max(boxes, counts.length * 2);
+            counts = Arrays.copyOf(counts, capacity);
+            packed = Arrays.copyOf(packed, capacity);
+            weighed = Arrays.copyOf(weighed, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            cases = Arrays.copyOf(cases, capacity);
+        }
+        valid = Math.min(valid, boxes);
+        for (int box = stale.nextSetBit(0); (box >= 0) && (box < valid); box = stale.nextSetBit(box + 1)) {
+            sum(box);
+        }
+        stale.clear();
+        for (int box = valid; box < boxes; box++) {
+            sum(box);
+        }
+        valid = boxes;
+    }
+
+    private void sum(int box) {
+        int capacity = boxOptions.getCapacity();
+        int from = box * capacity;
+        int to = Math.min(samples.getSize(), from + capacity);
+        if (masks.length < capacity) masks = new int[capacity];
+        int packedCount = 0;
+        int weighedCount = 0;
+        double sum = 0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        for (int index = from; index < to; index++) {
+            Sample sample = samples.getElementAt(index);
+            if (sample.getPacked()) packedCount++;
+            double weight = sample.getWeightValue();
+            if (!Double.isNaN(weight)) {
+                weighedCount++;
+                sum += weight;
+                min = Double.isNaN(min) ? weight : Math.min(min, weight);
+                max = Double.isNaN(max) ? weight : Math.max(max, weight);
+            }
+            masks[index - from] = sample.getMaskId();
+        }
+        // distinct masks
+        Arrays.sort(masks, 0, to - from);
+        int distinct = 0;
+        for (int i = 0; i < to - from; i++) {
+            if ((i == 0) || (masks[i] != masks[i - 1])) distinct++;
+        }
+        counts[box] = to - from;
+        packed[box] = packedCount;
+        weighed[box] = weighedCount;
+        sums[box] = sum;
+        mins[box] = min;
+        maxs[box] = max;
+        cases[box] = distinct;
+    }
+}
@@ -79,12 +79,16 @@ public class BoxOptions {
         return result;
     }
 
+    // check if table row is between boxes
+    public boolean isSeparator(int row) {
+        return row % (rows + separator) >= rows;
+    }
+
     // translate table position to index considering separator
     public int translate(int row, int col) {
-        // checking on-separator click
-        while ((row % (rows + separator)) / rows >= 1) {
-            row--;
-        }
+        // checking on-separator click: the last row of the box above
+        int inBox = row % (rows + separator);
+        if (inBox >= rows) row -= inBox - rows + 1;
 
         int fullBoxesCount = row / (rows + separator);
         int fullRows = row - separator * fullBoxesCount;
@@ -0,0 +1,67 @@
+package ru.bioresourceslab;
+
+/** Сводка по одной коробке отправки: упаковка, вес и случаи.
+ * Weights are summed only for samples with numeric weight; min and max are NaN if there are no such samples.
+ * The summary is a copy, it is not changed with the shipment (see Shipment.getBoxSummary). */
+
+public final class BoxSummary {
+    private final int box;
+    private final int count;
+    private final int packed;
+    private final int weighed;
+    private final double weightSum;
+    private final double weightMin;
+    private final double weightMax;
+    private final int cases;
+
+    BoxSummary(int box, int count, int packed, int weighed, double weightSum, double weightMin, double weightMax, int cases) {
+        this.box = box;
+        this.count = count;
+        this.packed = packed;
+        this.weighed = weighed;
+        this.weightSum = weightSum;
+        this.weightMin = weightMin;
+        this.weightMax = weightMax;
+        this.cases = cases;
+    }
+
+    /** Get index of the box (from 0) */
+    public int getBox() {
+        return box;
+    }
+
+    /** Get count of samples in the box */
+    public int getCount() {
+        return count;
+    }
+
+    public int getPackedCount() {
+        return packed;
+    }
+
+    public int getUnpackedCount() {
+        return count - packed;
+    }
+
+    /** Get count of samples with numeric weight */
+    public int getWeighedCount() {
+        return weighed;
+    }
+
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    public double getWeightMin() {
+        return weightMin;
+    }
+
+    public double getWeightMax() {
+        return weightMax;
+    }
+
+    /** Get count of distinct cases (sample masks) in the box */
+    public int getCasesCount() {
+        return cases;
+    }
+}
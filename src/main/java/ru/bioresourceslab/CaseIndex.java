@@ -0,0 +1,75 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.Arrays;
+
+/** Индекс случаев (групп образцов с одинаковой маской) в списке отправки.
+ * A case is a run of neighbouring samples with equal masks. For every position the index keeps the first
+ * and the last position of its case, so the case bounds and size are found in constant time.
+ * Masks are compared by their ids in SampleStore. Changes of the list mark the index as invalid from
+ * the changed position; the rest is rebuilt on the next request, changes of weight or status cost nothing.
+ * The index is used on the writer thread of the owning shipment. */
+
+class CaseIndex {
+    private final ListModel<Sample> samples;
+    private int[] first = new int[16];      // position of the first sample of the case
+    private int[] last = new int[16];       // position of the last sample of the case
+    private int valid = 0;                  // positions [0, valid) are indexed
+    private boolean dirty = false;          // the list was changed: the case at the end of the valid part may be cut
+
+    CaseIndex(@NotNull ListModel<Sample> samples) {
+        this.samples = samples;
+    }
+
+    /** Mark the index as invalid from {@param index}: samples there were inserted, removed or replaced */
+    void invalidate(int index) {
+        if (index < valid) valid = Math.max(index, 0);
+        // after a removal at the end the valid part reaches the end, but its last case may have lost samples
+        dirty = true;
+    }
+
+    /** Get position of the first sample of the case of sample at {@param index} */
+    int getFirst(int index) {
+        update();
+        return first[index];
+    }
+
+    /** Get position of the last sample of the case of sample at {@param index} */
+    int getLast(int index) {
+        update();
+        return last[index];
+    }
+
+    /** Get count of samples in the case of sample at {@param index} */
+    int getSize(int index) {
+        update();
+        return last[index] - first[index] + 1;
+    }
+
+    // index the list from the first invalid position to the end
+    private void update() {
+        int count = samples.getSize();
+        if ((valid == count) && !dirty) return;
+        dirty = false;
+        if (first.length < count) {
+            int capacity = Math.max(count, first.length * 2);
+            first = Arrays.copyOf(first, capacity);
+            last = Arrays.copyOf(last, capacity);
+        }
+        // the case before the invalid part can continue in it
+        int start = (valid > 0) ? first[valid - 1] : 0;
+        while (start < count) {
+            int mask = samples.getElementAt(start).getMaskId();
+            int end = start;
+            while ((end + 1 < count) && (samples.getElementAt(end + 1).getMaskId() == mask)) end++;
+            for (int position = start; position <= end; position++) {
+                first[position] = start;
+                last[position] = end;
+            }
+            start = end + 1;
+        }
+        valid = count;
+    }
+}
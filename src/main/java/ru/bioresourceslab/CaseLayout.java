@@ -0,0 +1,212 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Раскладка случаев по коробкам: порядок образцов, при котором случай не разбивается по разным коробкам.
+ * Samples with equal masks (a case) are grouped, and boxes are filled one by one: every box is filled exactly
+ * to its capacity by whole cases, choosing the larger ones first (a subset sum over case sizes, which are less
+ * than the capacity). Since samples take the list without gaps, the count of boxes is the least possible one
+ * and is not changed; if a box can't be filled by whole cases, one case is split and continued in the next box.
+ * Cases larger than a box start at the beginning of a box and take the least count of boxes.
+ * The layout is a copy, it is not changed with the shipment (see Shipment.planCaseLayout). */
+
+public final class CaseLayout {
+    private final Sample[] source;      // list of samples the layout is planned for
+    private final int[] order;          // order[new position] = old position
+    private final int[] caseOf;         // case of sample at old position
+    private final String[] masks;       // mask of every case
+    private final int capacity;
+    private final int splitBefore;
+    private final int splitAfter;
+    private final int unavoidable;      // cases larger than a box
+
+    private CaseLayout(Sample[] source, int[] order, int[] caseOf, String[] masks, int capacity, int unavoidable) {
+        this.source = source;
+        this.order = order;
+        this.caseOf = caseOf;
+        this.masks = masks;
+        this.capacity = capacity;
+        this.unavoidable = unavoidable;
+        int[] identity = new int[order.length];
+        for (int i = 0; i < identity.length; i++) identity[i] = i;
+        this.splitBefore = countSplit(identity);
+        this.splitAfter = countSplit(order);
+    }
+
+    /** Plan layout of {@param samples} in boxes of {@param capacity} samples */
+    static CaseLayout plan(@NotNull Sample[] samples, int capacity) {
+        int count = samples.length;
+        capacity = Math.max(capacity, 1);
+
+        // cases in order of their first sample; samples of every case in their order
+        HashMap<String, Integer> cases = new HashMap<>();
+        int[] caseOf = new int[count];
+        for (int index = 0; index < count; index++) {
+            Integer number = cases.putIfAbsent(samples[index].getMask(), cases.size());
+            caseOf[index] = (number == null) ? cases.size() - 1 : number;
+        }
+        String[] masks = new String[cases.size()];
+        int[] start = new int[cases.size() + 1];
+        for (int index = 0; index < count; index++) {
+            masks[caseOf[index]] = samples[index].getMask();
+            start[caseOf[index] + 1]++;
+        }
+        for (int c = 0; c < masks.length; c++) start[c + 1] += start[c];
+        int[] members = new int[count];
+        int[] placed = new int[masks.length];   // samples of the case put to members
+        for (int index = 0; index < count; index++) {
+            members[start[caseOf[index]] + placed[caseOf[index]]++] = index;
+        }
+        int[] left = new int[masks.length];     // samples of the case not taken yet
+        for (int c = 0; c < masks.length; c++) left[c] = start[c + 1] - start[c];
+
+        // cases smaller than a box by size; larger ones are put in turn
+        ArrayList<ArrayDeque<Integer>> bySize = new ArrayList<>(capacity);
+        for (int size = 0; size < capacity; size++) bySize.add(new ArrayDeque<>());
+        ArrayDeque<Integer> large = new ArrayDeque<>();
+        for (int c = 0; c < masks.length; c++) {
+            if (left[c] < capacity) bySize.get(left[c]).add(c); else large.add(c);
+        }
+        int unavoidable = large.size();
+
+        int[] order = new int[count];
+        int length = 0;
+        int carry = -1;                         // split case to be continued in the next box
+        int[] from = new int[capacity + 1];     // size of the last case of the sum; 0 - sum is not reached
+        while (length < count) {
+            int end = length + Math.min(capacity, count - length);
+            // continued or large case from the beginning of the box
+            int first = (carry >= 0) ? carry : (large.isEmpty() ? -1 : large.poll());
+            if (first >= 0) {
+                int size = Math.min(left[first], end - length);
+                length = take(first, size, order, length, members, start, left);
+                carry = (left[first] > 0) ? first : -1;
+            }
+            int gap = end - length;
+            if (gap == 0) continue;
+
+            // the largest sum of whole cases not greater than the gap
+            Arrays.fill(from, 0, gap + 1, 0);
+            from[0] = -1;
+            for (int size = Math.min(gap, capacity - 1); size > 0; size--) {
+                for (int copy = Math.min(bySize.get(size).size(), gap / size); copy > 0; copy--) {
+                    for (int sum = gap; sum >= size; sum--) {
+                        if ((from[sum] == 0) && (from[sum - size] != 0)) from[sum] = size;
+                    }
+                }
+            }
+            int sum = gap;
+            while (from[sum] == 0) sum--;
+            for (int rest = sum; rest > 0; rest -= from[rest]) {
+                int c = bySize.get(from[rest]).poll();
+                length = take(c, left[c], order, length, members, start, left);
+            }
+
+            // the rest of the box is taken by a part of the largest case
+            gap = end - length;
+            if (gap == 0) continue;
+            int split = -1;
+            for (int size = capacity - 1; (size > gap) && (split < 0); size--) {
+                if (!bySize.get(size).isEmpty()) split = bySize.get(size).poll();
+            }
+            if (split < 0) split = large.poll();
+            length = take(split, gap, order, length, members, start, left);
+            carry = split;
+        }
+        return new CaseLayout(samples, order, caseOf, masks, capacity, unavoidable);
+    }
+
+    // put {@param size} next samples of case {@param c} to the layout
+    private static int take(int c, int size, int[] order, int length, int[] members, int[] start, int[] left) {
+        int next = start[c + 1] - left[c];
+        System.arraycopy(members, next, order, length, size);
+        left[c] -= size;
+        return length + size;
+    }
+
+    // count of cases in more than one box
+    private int countSplit(int[] positions) {
+        int[] box = new int[masks.length];
+        Arrays.fill(box, -1);
+        boolean[] split = new boolean[masks.length];
+        int result = 0;
+        for (int position = 0; position < positions.length; position++) {
+            int c = caseOf[positions[position]];
+            if ((box[c] >= 0) && (box[c] != position / capacity) && !split[c]) {
+                split[c] = true;
+                result++;
+            }
+            box[c] = position / capacity;
+        }
+        return result;
+    }
+
+    /** Get count of samples */
+    public int getCount() {
+        return order.length;
+    }
+
+    /** Get count of cases */
+    public int getCasesCount() {
+        return masks.length;
+    }
+
+    /** Get count of boxes; it is the same before and after the layout */
+    public int getBoxesCount() {
+        return (order.length + capacity - 1) / capacity;
+    }
+
+    /** Get count of cases in more than one box in the current order */
+    public int getSplitBefore() {
+        return splitBefore;
+    }
+
+    /** Get count of cases in more than one box after the layout */
+    public int getSplitAfter() {
+        return splitAfter;
+    }
+
+    /** Get count of cases larger than a box; they are always split */
+    public int getLargeCount() {
+        return unavoidable;
+    }
+
+    /** Get old position of sample which takes {@param position} after the layout */
+    public int getSource(int position) {
+        return order[position];
+    }
+
+    /** Get masks of cases in box {@param box} (from 0) after the layout and the count of their samples there,
+     * e.g. "CASE1 (12), CASE2 (4)" */
+    public String describeBox(int box) {
+        StringBuilder result = new StringBuilder();
+        int end = Math.min((box + 1) * capacity, order.length);
+        for (int position = box * capacity; position < end; ) {
+            int c = caseOf[order[position]];
+            int next = position;
+            while ((next < end) && (caseOf[order[next]] == c)) next++;
+            if (result.length() > 0) result.append(", ");
+            result.append(masks[c]).append(" (").append(next - position).append(')');
+            position = next;
+        }
+        return result.toString();
+    }
+
+    // samples in the planned order, or null if {@param current} is not the list the layout is planned for
+    Sample[] arrange(@NotNull SampleListModel current) {
+        if (current.size() != source.length) return null;
+        for (int index = 0; index < source.length; index++) {
+            if (current.get(index) != source[index]) return null;
+        }
+        Sample[] result = new Sample[order.length];
+        for (int position = 0; position < order.length; position++) {
+            result[position] = source[order[position]];
+        }
+        return result;
+    }
+}
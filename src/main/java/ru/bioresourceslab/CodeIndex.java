@@ -0,0 +1,110 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static ru.bioresourceslab.Sample.SAMPLE_CODE;
+
+/** Индекс кодов образцов списка отправки (поиск по штрихкоду).
+ * Codes are mapped to slots of SampleStore, since slots don't change when samples are shifted in the list.
+ * Positions of slots are kept in an array which is invalidated from the changed position on insertion or removal
+ * and rebuilt on the next request (as in CaseIndex). Repeated codes are counted; their position is found by scan,
+ * so the first of them in the list is returned. The index is used on the writer thread of the owning shipment. */
+
+class CodeIndex {
+    private static final int UNKNOWN = -1;          // slot of the code is to be found by scan
+
+    private final ListModel<Sample> samples;
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private final HashMap<String, Integer> repeats = new HashMap<>();  // count of extra samples with the code
+    private int[] positions = new int[16];          // positions of slots
+    private int valid = 0;                          // positions [0, valid) are indexed
+
+    CodeIndex(@NotNull ListModel<Sample> samples) {
+        this.samples = samples;
+    }
+
+    /** Add code of {@param sample} which is a view of the store; returns TRUE if the code is already in the list */
+    boolean add(@NotNull Sample sample) {
+        String code = sample.get(SAMPLE_CODE);
+        if (slots.putIfAbsent(code, sample.getSlot()) == null) return false;
+        repeats.merge(code, 1, Integer::sum);
+        return true;
+    }
+
+    /** Remove code of {@param sample}; call before the sample is detached from the store */
+    void remove(@NotNull Sample sample) {
+        String code = sample.get(SAMPLE_CODE);
+        Integer extra = repeats.get(code);
+        if (extra == null) {
+            slots.remove(code);
+            return;
+        }
+        if (extra == 1) repeats.remove(code); else repeats.put(code, extra - 1);
+        if (slots.get(code) == sample.getSlot()) slots.put(code, UNKNOWN);
+    }
+
+    /** Remove all codes */
+    void clear() {
+        slots.clear();
+        repeats.clear();
+        valid = 0;
+    }
+
+    /** Mark positions as invalid from {@param index}: samples there were inserted or removed */
+    void invalidate(int index) {
+        if (index < valid) valid = Math.max(index, 0);
+    }
+
+    /** Sample {@param sample} is placed at {@param index} instead of other one */
+    void set(int index, @NotNull Sample sample) {
+        if (index < valid) positions(sample.getSlot() + 1)[sample.getSlot()] = index;
+    }
+
+    /** Get position of sample with {@param code}; '-1' if there is no such sample */
+    int find(String code) {
+        Integer slot = slots.get(code);
+        if (slot == null) return -1;
+        if ((slot == UNKNOWN) || repeats.containsKey(code)) {
+            for (int index = 0; index < samples.getSize(); index++) {
+                Sample sample = samples.getElementAt(index);
+                if (!sample.get(SAMPLE_CODE).equals(code)) continue;
+                if (!repeats.containsKey(code)) slots.put(code, sample.getSlot());
+                return index;
+            }
+            return -1;
+        }
+        update();
+        return positions[slot];
+    }
+
+    /** Get position of sample in {@param slot} of the store */
+    int position(int slot) {
+        update();
+        return positions[slot];
+    }
+
+    /** Returns TRUE if more than one sample has {@param code} */
+    boolean isRepeated(String code) {
+        return repeats.containsKey(code);
+    }
+
+    // array of positions for {@param size} slots
+    private int[] positions(int size) {
+        if (positions.length < size) positions = Arrays.copyOf(positions, Math.max(size, positions.length * 2));
+        return positions;
+    }
+
+    // index positions from the first invalid one to the end
+    private void update() {
+        int count = samples.getSize();
+        for (int index = valid; index < count; index++) {
+            int slot = samples.getElementAt(index).getSlot();
+            positions(slot + 1)[slot] = index;
+        }
+        valid = count;
+    }
+}
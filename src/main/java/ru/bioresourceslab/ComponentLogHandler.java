@@ -22,7 +22,13 @@ public class ComponentLogHandler extends StreamHandler  {
         super.publish(record);
         flush();
         if (comboBox != null) {
-            comboBox.addItem("<" + now.format(calendar.getTime()) + "> [" + record.getLevel().getName() + "] " + record.getMessage());
+            String item = "<" + now.format(calendar.getTime()) + "> [" + record.getLevel().getName() + "] " + record.getMessage();
+            // records from background threads are shown on the event dispatch thread
+            if (SwingUtilities.isEventDispatchThread()) {
+                comboBox.addItem(item);
+            } else {
+                SwingUtilities.invokeLater(() -> comboBox.addItem(item));
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** Reads samples list from CSV/TSV file exported by LIMS.
+ * The file is memory-mapped and split into fields byte by byte; strings are created only for columns
+ * used by samples, and a value equal to the previous one in the same column is reused instead of decoded again.
+ * Delimiter (tab, semicolon or comma) is detected by the header; encoding is UTF-8 or windows-1251, detected by
+ * the first 64 KB of the file */
+
+public class CsvListReader extends ListReader {
+    private static final byte QUOTE = '"';
+    private static final byte[] DELIMITERS = {'\t', ';', ','};
+    private static final int CHARSET_PREFIX = 64 * 1024;   // count of bytes checked to detect encoding
+
+    private ByteBuffer buffer;
+    private Charset charset;
+    private byte delimiter;
+    private byte[] scratch = new byte[64];   // bytes of the current field
+    private byte[][] lastBytes = new byte[0][];
+    private String[] lastValues = new String[0];
+
+    public CsvListReader(Sample identifiers) {
+        super(identifiers);
+    }
+
+    @Override
+    protected void parse(@NotNull File file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                stop("файл слишком большой. ");
+                return;
+            }
+            // mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IOException("не удалось открыть файл. ", e);
+        }
+        try {
+            parse(mapped);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    private void parse(ByteBuffer mapped) {
+        buffer = mapped;
+        int limit = buffer.limit();
+        int pos = skipBom();
+        int headerEnd = lineEnd(pos);
+        charset = detectCharset(pos, prefixEnd(pos));
+        delimiter = detectDelimiter(pos, headerEnd);
+
+        int column = 0;
+        while ((pos < limit) && !stopped()) {
+            // read field into scratch
+            int length;
+            if (buffer.get(pos) == QUOTE) {
+                length = 0;
+                pos++;
+                while (pos < limit) {
+                    byte b = buffer.get(pos++);
+                    if (b == QUOTE) {
+                        // doubled quote is an escaped quote, single one closes the field
+                        if ((pos < limit) && (buffer.get(pos) == QUOTE)) {
+                            pos++;
+                        } else break;
+                    }
+                    length = putByte(length, b);
+                }
+                // skip garbage between closing quote and delimiter
+                while ((pos < limit) && !isFieldEnd(buffer.get(pos))) pos++;
+            } else {
+                int start = pos;
+                while ((pos < limit) && !isFieldEnd(buffer.get(pos))) pos++;
+                length = 0;
+                if (isNeeded(column)) {
+                    for (int i = start; i < pos; i++) {
+                        length = putByte(length, buffer.get(i));
+                    }
+                }
+            }
+            if (isNeeded(column)) putCell(column, decode(column, length));
+
+            // delimiter, end of line or end of file
+            if (pos >= limit) {
+                endRow();
+                break;
+            }
+            byte b = buffer.get(pos++);
+            if (b == delimiter) {
+                column++;
+                continue;
+            }
+            if ((b == '\r') && (pos < limit) && (buffer.get(pos) == '\n')) pos++;
+            endRow();
+            column = 0;
+        }
+    }
+
+    private boolean isFieldEnd(byte b) {
+        return (b == delimiter) || (b == '\n') || (b == '\r');
+    }
+
+    private int putByte(int length, byte b) {
+        if (length == scratch.length) scratch = Arrays.copyOf(scratch, length * 2);
+        scratch[length] = b;
+        return length + 1;
+    }
+
+    // values of storage, rack and box are repeated row by row, so the previous string of the column is checked first
+    private String decode(int column, int length) {
+        if (column >= lastValues.length) {
+            lastValues = Arrays.copyOf(lastValues, column + 1);
+            lastBytes = Arrays.copyOf(lastBytes, column + 1);
+        }
+        byte[] last = lastBytes[column];
+        if ((last != null) && (last.length == length) && equalsScratch(last)) return lastValues[column];
+
+        String value = new String(scratch, 0, length, charset);
+        lastBytes[column] = Arrays.copyOf(scratch, length);
+        lastValues[column] = value;
+        return value;
+    }
+
+    private boolean equalsScratch(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != scratch[i]) return false;
+        }
+        return true;
+    }
+
+    private int skipBom() {
+        if ((buffer.limit() >= 3) && ((buffer.get(0) & 0xFF) == 0xEF) && ((buffer.get(1) & 0xFF) == 0xBB) && ((buffer.get(2) & 0xFF) == 0xBF))
+            return 3;
+        return 0;
+    }
+
+    private int lineEnd(int pos) {
+        while ((pos < buffer.limit()) && (buffer.get(pos) != '\n') && (buffer.get(pos) != '\r')) pos++;
+        return pos;
+    }
+
+    // end of the part of file checked to detect encoding: the whole lines within the first 64 KB
+    private int prefixEnd(int from) {
+        int end = buffer.limit();
+        if (end - from <= CHARSET_PREFIX) return end;
+        end = from + CHARSET_PREFIX;
+        // a character is not cut if the part ends with a line; the header is checked in any case
+        int line = end;
+        while ((line > from) && (buffer.get(line - 1) != '\n')) line--;
+        return (line > from) ? line : lineEnd(from);
+    }
+
+    // the first part of file is decoded as strict UTF-8; if it is not valid, the file is supposed to be saved by Excel
+    // in windows-1251: a header in latin letters is valid in both, so the data is checked too
+    private Charset detectCharset(int from, int to) {
+        ByteBuffer header = buffer.duplicate();
+        header.position(from);
+        header.limit(to);
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(header);
+            return StandardCharsets.UTF_8;
+        } catch (CharacterCodingException e) {
+            return Charset.forName("windows-1251");
+        }
+    }
+
+    // the most frequent delimiter of the header outside quotes
+    private byte detectDelimiter(int from, int to) {
+        int[] counts = new int[DELIMITERS.length];
+        boolean quoted = false;
+        for (int pos = from; pos < to; pos++) {
+            byte b = buffer.get(pos);
+            if (b == QUOTE) quoted = !quoted;
+            if (quoted) continue;
+            for (int d = 0; d < DELIMITERS.length; d++) {
+                if (b == DELIMITERS[d]) counts[d]++;
+            }
+        }
+        int best = 0;
+        for (int d = 1; d < DELIMITERS.length; d++) {
+            if (counts[d] > counts[best]) best = d;
+        }
+        return DELIMITERS[best];
+    }
+}
@@ -0,0 +1,120 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/** Reads all samples lists of a directory as one shipment.
+ * Files are parsed in parallel on a thread pool, then their samples are merged in order of file names,
+ * so the result doesn't depend on which file is parsed first. Parse time of every file and total read and merge time
+ * are logged. If any file can't be read, the whole directory is rejected. Snapshots are not read from directories:
+ * a directory is a batch of manifests, a snapshot is opened as a single file. */
+
+public class DirectoryListReader extends ListReader {
+    private final Logger log = Logger.getLogger("SPA Logger");
+    private final boolean streaming;
+    private final List<ListReader> readers = new CopyOnWriteArrayList<>();
+
+    public DirectoryListReader(Sample identifiers, boolean streaming) {
+        super(identifiers);
+        this.streaming = streaming;
+    }
+
+    /** Get samples lists of {@param directory} sorted by name; snapshots are skipped */
+    public static File[] listFiles(@NotNull File directory) {
+        File[] files = directory.listFiles(file -> {
+            String name = file.getName().toLowerCase();
+            // skip lock files of Excel and snapshots
+            if (!file.isFile() || name.startsWith("~$") || name.endsWith(SnapshotFile.EXTENSION)) return false;
+            for (String extension : ListReader.EXTENSIONS) {
+                if (name.endsWith(extension)) return true;
+            }
+            return false;
+        });
+        if (files == null) return new File[0];
+        Arrays.sort(files, (a, b) -> a.getName().compareToIgnoreCase(b.getName()));
+        return files;
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        cancelReaders();
+    }
+
+    private void cancelReaders() {
+        for (ListReader reader : readers) {
+            reader.cancel();
+        }
+    }
+
+    @Override
+    protected void parse(@NotNull File directory) throws IOException {
+        long started = System.nanoTime();
+        File[] files = listFiles(directory);
+        if (files.length == 0) {
+            stop("в папке нет списков. ");
+            return;
+        }
+
+        int threads = Math.min(files.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "SPA import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            ArrayList<Future<List<Sample>>> results = new ArrayList<>();
+            for (File file : files) {
+                results.add(executor.submit(() -> parseFile(file)));
+            }
+
+            // merge in order of files; the next file is usually parsed while the previous one is merged
+            long mergeTime = 0;
+            for (int i = 0; (i < files.length) && !stopped(); i++) {
+                List<Sample> samples;
+                try {
+                    samples = results.get(i).get();
+                } catch (ExecutionException e) {
+                    stop(files[i].getName() + ": " + e.getCause().getMessage());
+                    cancelReaders();
+                    break;
+                } catch (InterruptedException e) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                long start = System.nanoTime();
+                for (Sample sample : samples) {
+                    accept(sample);
+                }
+                mergeTime += System.nanoTime() - start;
+            }
+            if (!stopped()) {
+                log.info("Прочитано списков: " + files.length + " за " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+                        + " мс, из них объединение " + TimeUnit.NANOSECONDS.toMillis(mergeTime) + " мс");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Sample> parseFile(File file) throws IOException {
+        ListReader reader = ListReader.create(file, identifiers, streaming);
+        readers.add(reader);
+        if (stopped()) reader.cancel();
+
+        ArrayList<Sample> samples = new ArrayList<>();
+        long start = System.nanoTime();
+        reader.read(file, samples::add);
+        log.fine("Файл " + file.getName() + ": " + samples.size() + " образцов за "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " мс");
+        return samples;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.bioresourceslab;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+/** Режим командной строки: импорт списка -> раскладка по коробкам -> экспорт, без окон и распознавателя.
+ * AWT is switched to headless mode before any of its classes is loaded, so the tool can run on a server.
+ * Settings are read from spa.properties as in AppUI; box parameters and number can be overridden by options.
+ * The output format is chosen by extension: .XLS/.XLSX - map, .SPA - shipment snapshot.
+ * Exit codes: 0 - done, 1 - import or export failed, 2 - wrong arguments */
+
+public class HeadlessApp {
+    private static final String USAGE = "usage: <input file or directory> <output .xls|.xlsx|.spa> " +
+            "[-rows N] [-columns N] [-separator N] [-number N] [-settings spa.properties]";
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        System.exit(run(args));
+    }
+
+    /** Run conversion with command line {@param args}; returns exit code */
+    public static int run(String[] args) {
+        Logger log = Logger.getLogger("SPA Logger");
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        String name = output.getName().toLowerCase();
+        if (!name.endsWith(".xls") && !name.endsWith(".xlsx") && !name.endsWith(SnapshotFile.EXTENSION)) {
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        // options
+        Properties options = new Properties();
+        for (int i = 2; i < args.length; i += 2) {
+            if (!args[i].startsWith("-") || (i + 1 >= args.length)) {
+                System.err.println(USAGE);
+                return 2;
+            }
+            options.setProperty(args[i].substring(1), args[i + 1]);
+        }
+        Properties properties;
+        try {
+            properties = loadSettings(options.getProperty("settings", "spa.properties"));
+        } catch (IOException e) {
+            log.severe("Ошибка загрузки параметров: " + e.getMessage());
+            return 1;
+        }
+
+        Sample identifiers = new Sample(properties.getProperty("list.code"), properties.getProperty("list.weight"),
+                properties.getProperty("list.storage"), properties.getProperty("list.rack"), properties.getProperty("list.box"),
+                properties.getProperty("list.row"), properties.getProperty("list.column"));
+        Shipment shipment = new Shipment(identifiers);
+        // the shipment is used by this thread only, so changes are made here instead of the EDT
+        shipment.setWriter(AbstractShipment.CALLER_WRITER);
+        shipment.setStreamingImport(!"false".equals(properties.getProperty("import.streaming")));
+        int rows = parseInt(options.getProperty("rows", properties.getProperty("box.rows")), 9);
+        int columns = parseInt(options.getProperty("columns", properties.getProperty("box.columns")), 9);
+        int separator = parseInt(options.getProperty("separator", properties.getProperty("separator")), 2);
+        shipment.setBoxOptions(rows, columns, separator);
+        shipment.setExportParameters(
+                parseFont(properties, "export.header.font.name", "export.header.font.style", "export.header.font.size"),
+                parseFont(properties, "export.font.name", "export.font.style", "export.font.size"),
+                parseInt(properties.getProperty("export.width"), 16));
+
+        try {
+            if (!shipment.importList(input)) return 1;
+            // box options of the command line take precedence over the ones restored from a session snapshot
+            if (options.containsKey("rows") || options.containsKey("columns") || options.containsKey("separator"))
+                shipment.setBoxOptions(rows, columns, separator);
+            shipment.setNumber(options.getProperty("number", shipment.getNumber()));
+            boolean written;
+            if (name.endsWith(SnapshotFile.EXTENSION)) {
+                try {
+                    SnapshotFile.write(shipment.snapshot(), 0, output);
+                    written = true;
+                } catch (IOException e) {
+                    log.warning("Ошибка экспорта: " + e.getMessage());
+                    written = false;
+                }
+            } else {
+                written = shipment.saveMapToFile(output).get();
+            }
+            if (written) log.info("Образцов: " + shipment.getSamplesCount() + ", коробок: " + shipment.getBoxesCount());
+            return written ? 0 : 1;
+        } catch (InterruptedException | ExecutionException e) {
+            log.warning("Ошибка экспорта: " + e.getMessage());
+            return 1;
+        } finally {
+            shipment.close();
+        }
+    }
+
+    // settings file from working directory, otherwise defaults from resources
+    private static Properties loadSettings(String fileName) throws IOException {
+        File file = new File(fileName);
+        InputStream stream = file.isFile() ? new FileInputStream(file) : HeadlessApp.class.getClassLoader().getResourceAsStream("spa.properties");
+        if (stream == null) throw new FileNotFoundException(fileName);
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties;
+    }
+
+    private static int parseInt(String source, int defaultValue) {
+        try {
+            return Integer.parseInt(source.trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Font parseFont(Properties p, String nameID, String styleID, String sizeID) {
+        int style = parseInt(p.getProperty(styleID), Font.PLAIN);
+        if ((style < Font.PLAIN) || (style > (Font.BOLD | Font.ITALIC))) style = Font.PLAIN;
+        return new Font(p.getProperty(nameID), style, parseInt(p.getProperty(sizeID), 10));
+    }
+}
@@ -0,0 +1,105 @@
+package ru.bioresourceslab;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Схема импорта: соответствие столбцов файла полям образца.
+ * The schema is compiled once per file from the header row; after that every cell is routed to its field
+ * by column index, without comparing names. Static helpers convert typed cell values to text:
+ * integer numbers lose the fraction part ("3", not "3.0"), other numbers and strings are kept as is. */
+
+public final class ImportSchema {
+    /** Order of sample fields in the schema */
+    public static final int[] FIELDS = {SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN, SAMPLE_CODE, SAMPLE_WEIGHT};
+    public static final int STORAGE = 0;
+    public static final int RACK = 1;
+    public static final int BOX = 2;
+    public static final int ROW = 3;
+    public static final int COLUMN = 4;
+    public static final int CODE = 5;
+    public static final int WEIGHT = 6;
+
+    private final int[] columns;     // file column for each field, '-1' if it is absent
+    private final int[] fields;      // field for each file column, '-1' if the column is not used
+
+    private ImportSchema(int[] columns) {
+        this.columns = columns;
+        int width = 0;
+        for (int column : columns) {
+            width = Math.max(width, column + 1);
+        }
+        fields = new int[width];
+        Arrays.fill(fields, -1);
+        for (int field = 0; field < columns.length; field++) {
+            if (columns[field] != -1) fields[columns[field]] = field;
+        }
+    }
+
+    /** Compile schema from {@param header} names according to {@param identifiers}.
+     * Returns null if not all required columns are found (weight is optional) */
+    public static ImportSchema compile(@NotNull List<String> header, @NotNull Sample identifiers) {
+        HashMap<String, Integer> names = new HashMap<>();
+        for (int field = 0; field < FIELDS.length; field++) {
+            names.put(identifiers.get(FIELDS[field]), field);
+        }
+
+        int[] columns = new int[FIELDS.length];
+        Arrays.fill(columns, -1);
+        for (int column = 0; column < header.size(); column++) {
+            Integer field = names.get(header.get(column));
+            if (field != null) columns[field] = column;
+        }
+        for (int field = 0; field < FIELDS.length; field++) {
+            if ((columns[field] == -1) && (field != WEIGHT)) return null;
+        }
+        return new ImportSchema(columns);
+    }
+
+    /** Get field corresponding to file {@param column}; '-1' if the column is not used */
+    public int getField(int column) {
+        return ((column < 0) || (column >= fields.length)) ? -1 : fields[column];
+    }
+
+    /** Get file column of {@param field}; '-1' if it is absent */
+    public int getColumn(int field) {
+        return columns[field];
+    }
+
+    /** Get number of file columns covering all used ones */
+    public int getWidth() {
+        return fields.length;
+    }
+
+    /** Text of typed cell value; formulas are read by cached result */
+    public static String cellText(Cell cell) {
+        if (cell == null) return "";
+        CellType type = cell.getCellType();
+        if (type == CellType.FORMULA) type = cell.getCachedFormulaResultType();
+        switch (type) {
+            case NUMERIC:
+                return numberText(cell.getNumericCellValue());
+            case STRING:
+                return cell.getStringCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
+            default:
+                return "";
+        }
+    }
+
+    /** Text of number: integers without fraction part, others as Excel shows them */
+    public static String numberText(double value) {
+        if ((value == Math.rint(value)) && (Math.abs(value) < 1e15)) {
+            return Long.toString((long) value);
+        }
+        return NumberToTextConverter.toText(value);
+    }
+}
@@ -0,0 +1,129 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Background import of samples list.
+ * The file is parsed on a worker thread; samples are passed to the shipment by batches on the event dispatch thread,
+ * so the list is filled progressively and UI is not blocked. The shipment is cleared when the first batch arrives;
+ * if the import is cancelled or fails, the previous list and number are put back.
+ * In merge mode the whole file is read first and then merged into the current list (see Shipment.mergeSamples).
+ * how to use: override {@code progress(...)} and {@code finished()} to refresh UI, then call {@code execute()} */
+
+public class ImportWorker extends SwingWorker<Integer, Void> {
+    /** Number of samples passed to the shipment at once */
+    public static final int BATCH_SIZE = 500;
+
+    private final Logger log = Logger.getLogger("SPA Logger");
+    private final Shipment shipment;
+    private final File file;
+    private final ListReader reader;
+    private final boolean merge;
+    private final ArrayList<Sample> merged = new ArrayList<>();   // samples to merge (merge mode only)
+
+    private ArrayList<Sample> batch = new ArrayList<>(BATCH_SIZE);
+    private boolean started = false;     // shipment is cleared (accessed on EDT only)
+    private final ArrayList<Sample> previous = new ArrayList<>();  // samples replaced by the import (accessed on EDT only)
+    private String previousNumber;
+    private int loaded = 0;              // number of samples passed to the shipment (accessed on EDT only)
+
+    public ImportWorker(@NotNull Shipment shipment, @NotNull File file, boolean merge) {
+        this.shipment = shipment;
+        this.file = file;
+        this.merge = merge;
+        this.reader = shipment.createReader(file);
+    }
+
+    public ImportWorker(@NotNull Shipment shipment, @NotNull File file) {
+        this(shipment, file, false);
+    }
+
+    @Override
+    protected Integer doInBackground() throws Exception {
+        int count = reader.read(file, sample -> {
+            if (isCancelled()) {
+                reader.cancel();
+                return;
+            }
+            if (merge) {
+                merged.add(sample);
+                return;
+            }
+            batch.add(sample);
+            if (batch.size() >= BATCH_SIZE) flush();
+        });
+        flush();
+        return count;
+    }
+
+    // send collected samples to EDT; runnables are executed in order and before done()
+    private void flush() {
+        if (batch.isEmpty()) return;
+        final ArrayList<Sample> ready = batch;
+        batch = new ArrayList<>(BATCH_SIZE);
+        SwingUtilities.invokeLater(() -> {
+            if (isCancelled()) return;
+            if (!started) {
+                // the samples are detached by clearing, so they keep their fields and can be put back
+                for (int index = 0; index < shipment.getSamplesCount(); index++) {
+                    previous.add(shipment.getSample(index));
+                }
+                previousNumber = shipment.getNumber();
+                shipment.clear();
+                started = true;
+            }
+            shipment.appendSamples(ready);
+            loaded += ready.size();
+            progress(loaded);
+        });
+    }
+
+    @Override
+    protected void done() {
+        try {
+            get();
+            previous.clear();
+            if (merge) {
+                shipment.mergeSamples(merged);
+            } else {
+                // a session snapshot replaces the session
+                if (reader instanceof SnapshotListReader) shipment.restoreOptions(((SnapshotListReader) reader).getSnapshot());
+                log.info("Список успешно загружен. ");
+            }
+        } catch (CancellationException e) {
+            log.info("Импорт отменен. ");
+            restore();
+        } catch (InterruptedException e) {
+            log.log(Level.WARNING, "Ошибка импорта: загрузка прервана. ");
+            restore();
+        } catch (ExecutionException e) {
+            log.log(Level.WARNING, "Ошибка импорта: " + e.getCause().getMessage());
+            restore();
+        }
+        finished();
+    }
+
+    // put back the list replaced by the incomplete import
+    private void restore() {
+        if (!started) return;
+        shipment.clear();
+        shipment.appendSamples(previous);
+        shipment.setNumber(previousNumber);
+        previous.clear();
+        started = false;
+        log.info("Восстановлен предыдущий список: " + shipment.getSamplesCount() + " образцов. ");
+    }
+
+    /** Called on EDT after each batch with total number of loaded samples */
+    protected void progress(int loaded) {}
+
+    /** Called on EDT when import is completed, failed or cancelled */
+    protected void finished() {}
+}
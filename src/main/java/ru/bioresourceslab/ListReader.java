@@ -0,0 +1,138 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static ru.bioresourceslab.ImportSchema.*;
+
+/** Базовый класс чтения списка образцов из файла.
+ * The first row of the sheet is a header: it is compiled into ImportSchema, then every next row
+ * becomes a Sample and is passed to the consumer. Subclasses only feed cells via
+ * {@code putCell(...)} and {@code endRow()}, so the whole file is never kept in memory. */
+
+public abstract class ListReader {
+    /** Extensions of files {@code create(...)} has readers for */
+    public static final List<String> EXTENSIONS = Collections.unmodifiableList(
+            Arrays.asList(".xls", ".xlsx", ".csv", ".tsv", ".txt", SnapshotFile.EXTENSION));
+
+    protected final Sample identifiers;         // field identifiers (excel column names)
+    private final ArrayList<String> header = new ArrayList<>();
+    private final String[] values = new String[ImportSchema.FIELDS.length];    // fields of the current row
+    private ImportSchema schema;                // null until header is read
+    private Consumer<Sample> consumer;
+    private volatile String error;              // reason to stop reading
+    private int count;
+
+    public ListReader(Sample identifiers) {
+        this.identifiers = identifiers;
+    }
+
+    /** Get reader suitable for {@param file} or directory. Streaming readers are used for .XLS/.XLSX if {@param streaming} is set */
+    public static ListReader create(@NotNull File file, Sample identifiers, boolean streaming) {
+        if (file.isDirectory()) return new DirectoryListReader(identifiers, streaming);
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".csv") || name.endsWith(".tsv") || name.endsWith(".txt")) return new CsvListReader(identifiers);
+        if (name.endsWith(SnapshotFile.EXTENSION)) return new SnapshotListReader(identifiers);
+        if (streaming && name.endsWith(".xlsx")) return new XlsxListReader(identifiers);
+        if (streaming && name.endsWith(".xls")) return new XlsListReader(identifiers);
+        return new WorkbookListReader(identifiers);
+    }
+
+    /** Read samples from {@param file} and pass them one by one to {@param consumer}. A reader is used once.
+     * Returns number of samples read. Throws IOException with description if the file can't be imported */
+    public int read(@NotNull File file, @NotNull Consumer<Sample> consumer) throws IOException {
+        this.consumer = consumer;
+        schema = null;
+        count = 0;
+        header.clear();
+        Arrays.fill(values, "");
+
+        parse(file);
+        if (error != null) throw new IOException(error);
+        if (count == 0) throw new IOException("файл не содержит данных! ");
+        return count;
+    }
+
+    /** Walk through the first sheet of {@param file} calling {@code putCell(...)} and {@code endRow()} */
+    protected abstract void parse(@NotNull File file) throws IOException;
+
+    /** Stop reading from another thread. {@code read(...)} will throw IOException as soon as the current row is done */
+    public void cancel() {
+        stop("импорт отменен. ");
+    }
+
+    /** Returns TRUE if reading should be stopped */
+    protected boolean stopped() {
+        return error != null;
+    }
+
+    /** Stop reading with {@param reason} */
+    protected void stop(String reason) {
+        if (error == null) error = reason;
+    }
+
+    /** Get schema of the file; null while header is not read */
+    protected ImportSchema getSchema() {
+        return schema;
+    }
+
+    /** Returns TRUE if value of {@param column} is used: any column of the header, only sample columns of other rows */
+    protected boolean isNeeded(int column) {
+        return (schema == null) || (schema.getField(column) != -1);
+    }
+
+    /** Put value of cell with {@param column} index into the current row */
+    protected void putCell(int column, String value) {
+        if (column < 0) return;
+        if (value == null) value = "";
+        if (schema == null) {
+            while (header.size() <= column) header.add("");
+            header.set(column, value);
+            return;
+        }
+        int field = schema.getField(column);
+        if (field != -1) values[field] = value;
+    }
+
+    /** Finish the current row: compile schema if it is a header, or create a sample */
+    protected void endRow() {
+        if (stopped()) return;
+        if (schema == null) {
+            if (!isBlank(header)) {
+                schema = ImportSchema.compile(header, identifiers);
+                if (schema == null) stop("не все столбцы данных найдены! ");
+            }
+            header.clear();
+            return;
+        }
+        if (!isBlank(Arrays.asList(values))) accept(createSample());
+        Arrays.fill(values, "");
+    }
+
+    /** Pass read {@param sample} to the consumer */
+    protected void accept(Sample sample) {
+        consumer.accept(sample);
+        count++;
+    }
+
+    private boolean isBlank(List<String> row) {
+        for (String value : row) {
+            if (!value.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private Sample createSample() {
+        String weight = values[WEIGHT];
+        Sample sample = new Sample(values[CODE], weight, values[STORAGE], values[RACK], values[BOX], values[ROW], values[COLUMN]);
+        sample.setPacked(!weight.equals(""));
+        return sample;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Индекс мест хранения образцов отправки.
+ * Slots of SampleStore are kept sorted by location: storage -> rack -> box -> row -> column, i.e. in the order
+ * samples are picked from the freezer. Numbers in parts are compared by value ("2" before "10", "A2" before "A10").
+ * A storage, a rack or a box is a continuous range of the set, so samples of any of them are found
+ * without looking at others. Location of a slot is never changed in the store, so the order of the set is stable;
+ * slots are added and removed with their samples. The index is used on the writer thread of the owning shipment. */
+
+class LocationIndex {
+    private static final int[] LOCATION_PARTS = {SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN};
+    // slots of range bounds
+    private static final int LOWER = -1;
+    private static final int UPPER = -2;
+
+    private SampleStore store;
+    private final TreeSet<Integer> places = new TreeSet<>(this::compare);
+    private final String[] bound = new String[LOCATION_PARTS.length];  // location of range bounds; null - any
+
+    LocationIndex(@NotNull SampleStore store) {
+        this.store = store;
+    }
+
+    /** Add sample in {@param slot} of the store */
+    void add(int slot) {
+        places.add(slot);
+    }
+
+    /** Remove sample in {@param slot}; call before the slot is released */
+    void remove(int slot) {
+        places.remove(slot);
+    }
+
+    /** Remove all samples; slots of {@param store} will be added further */
+    void clear(@NotNull SampleStore store) {
+        places.clear();
+        this.store = store;
+    }
+
+    /** Get slots of samples in {@param storage}, {@param rack}, {@param box} in pick order.
+     * 'null' means any value; parts after the first 'null' are ignored.
+     * If {@param unpacked} is TRUE, only unpacked samples are returned */
+    ArrayList<Integer> find(String storage, String rack, String box, boolean unpacked) {
+        bound[0] = storage;
+        bound[1] = (storage == null) ? null : rack;
+        bound[2] = (bound[1] == null) ? null : box;
+        bound[3] = bound[4] = null;
+        NavigableSet<Integer> range = (storage == null) ? places : places.subSet(LOWER, false, UPPER, false);
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int slot : range) {
+            if (!unpacked || !store.isPacked(slot)) result.add(slot);
+        }
+        return result;
+    }
+
+    // order of slots by location; range bounds are before and after all slots with their location
+    private int compare(int slot, int other) {
+        if (slot == other) return 0;
+        for (int part = 0; part < LOCATION_PARTS.length; part++) {
+            String value = value(slot, part);
+            String otherValue = value(other, part);
+            if (value == null) return (slot == UPPER) ? 1 : -1;
+            if (otherValue == null) return (other == UPPER) ? -1 : 1;
+            int result = compareParts(value, otherValue);
+            if (result != 0) return result;
+        }
+        if ((slot == UPPER) || (other == LOWER)) return 1;
+        if ((slot == LOWER) || (other == UPPER)) return -1;
+        return Integer.compare(slot, other);
+    }
+
+    private String value(int slot, int part) {
+        return (slot < 0) ? bound[part] : store.get(slot, LOCATION_PARTS[part]);
+    }
+
+    // natural order: runs of digits are compared by value everywhere in the text ("A2" before "A10"),
+    // other characters by code. A character other than a digit is below or above all digits, so it is below
+    // or above any number as well, and the order is transitive. Equal texts with different leading zeros
+    // ("01" and "1") are ordered alphabetically
+    private static int compareParts(String value, String other) {
+        int i = 0;
+        int j = 0;
+        while ((i < value.length()) && (j < other.length())) {
+            if (isDigit(value.charAt(i)) && isDigit(other.charAt(j))) {
+                int end = digitsEnd(value, i);
+                int otherEnd = digitsEnd(other, j);
+                i = firstDigit(value, i, end);
+                j = firstDigit(other, j, otherEnd);
+                if (end - i != otherEnd - j) return Integer.compare(end - i, otherEnd - j);
+                for (; i < end; i++, j++) {
+                    int result = Character.compare(value.charAt(i), other.charAt(j));
+                    if (result != 0) return result;
+                }
+            } else {
+                int result = Character.compare(value.charAt(i++), other.charAt(j++));
+                if (result != 0) return result;
+            }
+        }
+        if ((i < value.length()) || (j < other.length())) return (i < value.length()) ? 1 : -1;
+        return value.compareTo(other);
+    }
+
+    private static boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    // end of run of digits from {@param start}
+    private static int digitsEnd(String value, int start) {
+        while ((start < value.length()) && isDigit(value.charAt(start))) start++;
+        return start;
+    }
+
+    // position of the first significant digit of run [start, end)
+    private static int firstDigit(String value, int start, int end) {
+        while ((start < end - 1) && (value.charAt(start) == '0')) start++;
+        return start;
+    }
+}
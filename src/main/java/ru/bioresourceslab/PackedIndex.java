@@ -0,0 +1,69 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.BitSet;
+
+/** Индекс отметок упаковки по позициям списка отправки.
+ * Packed status of every position is mirrored in a BitSet, so the next or previous unpacked sample
+ * is found by nextClearBit / previousClearBit (a word of 64 samples per step) instead of checking samples one by one.
+ * Status changes and replacements update the bits in place; insertions and removals mark the index as invalid
+ * from the changed position, the rest is rebuilt on the next request (as in CaseIndex).
+ * The index is used on the writer thread of the owning shipment. */
+
+class PackedIndex {
+    private final ListModel<Sample> samples;
+    private final BitSet packed = new BitSet();
+    private int valid = 0;                  // positions [0, valid) are indexed
+
+    PackedIndex(@NotNull ListModel<Sample> samples) {
+        this.samples = samples;
+    }
+
+    /** Mark the index as invalid from {@param index}: samples there were inserted or removed */
+    void invalidate(int index) {
+        if (index < valid) valid = Math.max(index, 0);
+    }
+
+    /** Set packed {@param status} of sample at {@param index} */
+    void set(int index, boolean status) {
+        if (index < valid) packed.set(index, status);
+    }
+
+    /** Exchange statuses of samples at {@param index} and {@param other} */
+    void swap(int index, int other) {
+        if ((index >= valid) || (other >= valid)) {
+            invalidate(Math.min(index, other));
+            return;
+        }
+        boolean status = packed.get(index);
+        packed.set(index, packed.get(other));
+        packed.set(other, status);
+    }
+
+    /** Get position of the first unpacked sample at {@param index} or after it; '-1' if there is no such sample */
+    int nextUnpacked(int index) {
+        update();
+        int next = packed.nextClearBit(Math.max(index, 0));
+        return (next < samples.getSize()) ? next : -1;
+    }
+
+    /** Get position of the last unpacked sample at {@param index} or before it; '-1' if there is no such sample */
+    int previousUnpacked(int index) {
+        update();
+        if (index < 0) return -1;
+        return packed.previousClearBit(Math.min(index, samples.getSize() - 1));
+    }
+
+    // index the list from the first invalid position to the end
+    private void update() {
+        int count = samples.getSize();
+        if (valid == count) return;
+        packed.clear(valid, Math.max(packed.length(), valid));
+        for (int index = valid; index < count; index++) {
+            if (samples.getElementAt(index).getPacked()) packed.set(index);
+        }
+        valid = count;
+    }
+}
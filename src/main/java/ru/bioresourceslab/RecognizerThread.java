@@ -4,7 +4,9 @@ import edu.cmu.sphinx.api.Configuration;
 import edu.cmu.sphinx.api.LiveSpeechRecognizer;
 import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Logger;
 
 // recognizer thread
@@ -30,8 +32,8 @@ public abstract class RecognizerThread extends Thread {
 //            "resource:/cmusphinx-ru-5.2/6147.lm";
 
     private final Logger log = Logger.getLogger("SPA Logger");
-    boolean pauseFlag = true;
-    boolean isActive = true;
+    volatile boolean pauseFlag = true;
+    volatile boolean isActive = true;
 
     String result = "";
 
@@ -96,7 +98,14 @@ public abstract class RecognizerThread extends Thread {
             // как отменить это действие при получении pauseFlag?
             String utterance = recognizer.getResult().getHypothesis();
 
-            analyze(utterance);
+            // results are analyzed on the writer thread of the shipment (EDT), one by one
+            try {
+                SwingUtilities.invokeAndWait(() -> analyze(utterance));
+            } catch (InterruptedException e) {
+                log.severe("Прерывание потока: анализ результата прерван.");
+            } catch (InvocationTargetException e) {
+                log.severe("Ошибка анализа результата: " + e.getCause());
+            }
             log.info(result);
         }
         log.fine("Поток распознавателя завершен.");
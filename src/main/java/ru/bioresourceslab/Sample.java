@@ -1,6 +1,11 @@
 package ru.bioresourceslab;
 
 import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.NotNull;
+
+/** Образец: код, вес, отметка упаковки и место хранения.
+ * A sample is either independent (keeps its fields) or a view of SampleStore (fields are kept in the store columns).
+ * Samples become views when they are added to a shipment and independent again when they are removed from it. */
 
 public final class Sample {
     public static final int SAMPLE_CODE = 1;
@@ -19,11 +24,15 @@ public final class Sample {
     public static final String SPACER = " ";
 
     protected static final char[] MATERIAL_TYPE = {'T', 'B', 'S', 'C', 'P', 'A'};
+    /** Mask of codes without type char */
+    static final String NO_MASK = "no mask";
 
-    private final String code;
+    private String code;
     private String weight;
     private boolean packed = false;
-    private final String storage, rack, box, row, column;
+    private String storage, rack, box, row, column;
+    private SampleStore store;      // not null if the sample is a view of the store: fields are kept there
+    private int slot;               // slot of the sample in the store
 
     public Sample(String code, String weight, String storage, String rack, String box, String row, String column) {
         this.code = code;
@@ -35,70 +44,162 @@ public final class Sample {
         this.column = column;
     }
 
+    /** Move fields to {@param store}: the sample becomes its view */
+    void attach(@NotNull SampleStore store) {
+        slot = store.allocate(this);
+        this.store = store;
+        code = weight = storage = rack = box = row = column = null;
+    }
+
+    /** Take fields back from the store and free its slot: the sample becomes independent */
+    void detach() {
+        if (store == null) return;
+        SampleStore owner = store;
+        code = owner.get(slot, SAMPLE_CODE);
+        weight = owner.get(slot, SAMPLE_WEIGHT);
+        storage = owner.get(slot, SAMPLE_STORAGE);
+        rack = owner.get(slot, SAMPLE_RACK);
+        box = owner.get(slot, SAMPLE_BOX);
+        row = owner.get(slot, SAMPLE_ROW);
+        column = owner.get(slot, SAMPLE_COLUMN);
+        packed = owner.isPacked(slot);
+        store = null;
+        owner.release(slot);
+    }
+
+    /** Returns TRUE if the sample is a view of {@param store} */
+    boolean isViewOf(SampleStore store) {
+        return (this.store != null) && (this.store == store);
+    }
+
+    /** Get slot of the sample in the store; '-1' if the sample is not a view */
+    int getSlot() {
+        return (store != null) ? slot : -1;
+    }
+
+    /** Returns TRUE if the sample is a view of any store */
+    boolean isView() {
+        return store != null;
+    }
+
     // SETTERS
-    public void setPacked(boolean packed) {
+    // packed status and weight of a sample in a shipment are changed by the shipment: its indexes, journal,
+    // validator and listeners are to know it (see Shipment.revertSampleStatus, Shipment.setSampleWeight)
+    void setPacked(boolean packed) {
+        if (store != null) {
+            store.setPacked(slot, packed);
+            return;
+        }
         this.packed = packed;
     }
 
-    public void setWeight(String weight) {
+    void setWeight(String weight) {
+        if (store != null) {
+            store.setWeight(slot, weight);
+            return;
+        }
         this.weight = weight;
     }
 
+    /** Get detached copy of this sample: changes of the copy don't affect the original */
+    public Sample copy() {
+        Sample sample = new Sample(value(SAMPLE_CODE), value(SAMPLE_WEIGHT), value(SAMPLE_STORAGE), value(SAMPLE_RACK),
+                value(SAMPLE_BOX), value(SAMPLE_ROW), value(SAMPLE_COLUMN));
+        sample.packed = getPacked();
+        return sample;
+    }
+
     // GETTERS
     public boolean getPacked() {
-        return packed;
+        return (store != null) ? store.isPacked(slot) : packed;
+    }
+
+    /** Get weight as number; NaN if it is empty or not a number */
+    double getWeightValue() {
+        if (store != null) return store.getWeightValue(slot);
+        try {
+            return (weight == null) ? Double.NaN : Double.parseDouble(weight);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** Get value of single {@param field} */
+    String value(int field) {
+        if (store != null) return store.get(slot, field);
+        switch (field) {
+            case SAMPLE_CODE:
+                return code;
+            case SAMPLE_WEIGHT:
+                return weight;
+            case SAMPLE_STORAGE:
+                return storage;
+            case SAMPLE_RACK:
+                return rack;
+            case SAMPLE_BOX:
+                return box;
+            case SAMPLE_ROW:
+                return row;
+            default:
+                return column;
+        }
     }
 
-    /** Get Sample's fields as string */
+    /** Get Sample's fields as string (see SampleFormat) */
     public String get(@MagicConstant(flags = {SAMPLE_CODE, SAMPLE_WEIGHT, SAMPLE_PACKED, SAMPLE_STORAGE,
             SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN, SAMPLE_LOCATION, SAMPLE_ALL}) int flags) {
         if ((flags & SAMPLE_ALL) == 0) return "nothing requested";
-        String result = "";
-        if ((flags & SAMPLE_CODE) != 0) {
-            result += code;
-        }
-        if ((flags & SAMPLE_WEIGHT) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += SPACER;
-            result += weight;
-        }
-        if ((flags & SAMPLE_PACKED) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += SPACER;
-            result += packed;
-        }
-        if ((flags & SAMPLE_STORAGE) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += SPACER;
-            result += storage;
-        }
-        if ((flags & SAMPLE_RACK) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += DELIMITER;
-            result += rack;
-        }
-        if ((flags & SAMPLE_BOX) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += DELIMITER;
-            result += box;
-        }
-        if ((flags & SAMPLE_ROW) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += DELIMITER;
-            result += row;
-        }
-        if ((flags & SAMPLE_COLUMN) != 0) {
-            if (!result.endsWith(SPACER) & !result.equals("")) result += DELIMITER;
-            result += column;
-        }
-        return result;
+        // single field as is
+        if ((flags != SAMPLE_PACKED) && (Integer.bitCount(flags & SAMPLE_ALL) == 1)) return value(flags & SAMPLE_ALL);
+        SampleFormat format = SampleFormat.of(flags);
+        if ((store != null) && (format.getCacheId() != -1)) return store.format(slot, format, this);
+        return format.format(this);
     }
 
     /** Get a part of code before type char */
     public String getMask() {
-        String mask = code;
-        // get sample mask
+        return (store != null) ? store.getMask(slot) : mask(code);
+    }
+
+    /** Get id of the mask in the store; samples of the same case have equal ids. '-1' if the sample is not a view */
+    int getMaskId() {
+        return (store != null) ? store.getMaskId(slot) : -1;
+    }
+
+    /** Get material type char of the code (see MATERIAL_TYPE); '0' if the code has no type */
+    public char getMaterialType() {
+        int position = typePosition();
+        return (position == -1) ? 0 : value(SAMPLE_CODE).charAt(position);
+    }
+
+    /** Get a part of code after type char; empty if the code has no type */
+    public String getSuffix() {
+        int position = typePosition();
+        return (position == -1) ? "" : value(SAMPLE_CODE).substring(position + 1);
+    }
+
+    // position of type char in the code; it follows the mask
+    private int typePosition() {
+        String code = value(SAMPLE_CODE);
+        String mask = getMask();
+        int position = mask.length();
+        if ((position >= code.length()) || !code.startsWith(mask)) return -1;
+        for (char c : MATERIAL_TYPE) {
+            if (code.charAt(position) == c) return position;
+        }
+        return -1;
+    }
+
+    /** Get mask of sample {@param code}: a part of code before type char */
+    static String mask(String code) {
+        if (code == null) return NO_MASK;
         for (char c : MATERIAL_TYPE) {
-            int ci = mask.indexOf(c);
+            int ci = code.indexOf(c);
             if (ci != -1) {
-                return mask.substring(0, ci);
+                return code.substring(0, ci);
             }
         }
-        return "no mask";
+        return NO_MASK;
     }
 
 }
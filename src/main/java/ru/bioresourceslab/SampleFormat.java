@@ -0,0 +1,87 @@
+package ru.bioresourceslab;
+
+import org.intellij.lang.annotations.MagicConstant;
+import org.jetbrains.annotations.NotNull;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Скомпилированный формат вывода полей образца (see Sample.get(flags)).
+ * Flags are parsed once into the list of fields with their separators; formatting just walks the list
+ * and appends values to a StringBuilder. Formats are shared: one object for each combination of flags.
+ * Results of formats used on every paint (CACHED) are kept by SampleStore for each sample
+ * until its weight or packed status is changed. */
+
+public final class SampleFormat {
+    /** Formats cached by SampleStore */
+    static final int[] CACHED = {SAMPLE_CODE | SAMPLE_WEIGHT, SAMPLE_CODE | SAMPLE_LOCATION, SAMPLE_LOCATION};
+    // all fields in order of output
+    private static final int[] ORDER = {SAMPLE_CODE, SAMPLE_WEIGHT, SAMPLE_PACKED, SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN};
+    private static final SampleFormat[] FORMATS = new SampleFormat[SAMPLE_ALL + 1];
+
+    private final int[] fields;
+    private final String[] separators;   // added before the field if the result is not empty and doesn't end with SPACER
+    private final int cacheId;           // index in CACHED, '-1' if the format is not cached
+
+    private SampleFormat(int flags) {
+        int count = Integer.bitCount(flags & SAMPLE_ALL);
+        fields = new int[count];
+        separators = new String[count];
+        int index = 0;
+        for (int field : ORDER) {
+            if ((flags & field) == 0) continue;
+            fields[index] = field;
+            separators[index] = (field == SAMPLE_CODE) ? null
+                    : ((field == SAMPLE_WEIGHT) || (field == SAMPLE_PACKED) || (field == SAMPLE_STORAGE)) ? SPACER : DELIMITER;
+            index++;
+        }
+        int id = -1;
+        for (int i = 0; i < CACHED.length; i++) {
+            if (CACHED[i] == (flags & SAMPLE_ALL)) id = i;
+        }
+        cacheId = id;
+    }
+
+    /** Get compiled format for {@param flags} */
+    public static SampleFormat of(@MagicConstant(flags = {SAMPLE_CODE, SAMPLE_WEIGHT, SAMPLE_PACKED, SAMPLE_STORAGE,
+            SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN, SAMPLE_LOCATION, SAMPLE_ALL}) int flags) {
+        flags &= SAMPLE_ALL;
+        SampleFormat format = FORMATS[flags];
+        // formats are immutable: creating one twice from different threads is harmless
+        if (format == null) FORMATS[flags] = format = new SampleFormat(flags);
+        return format;
+    }
+
+    /** Index of the format in CACHED; '-1' if it is not cached */
+    int getCacheId() {
+        return cacheId;
+    }
+
+    /** Append fields of {@param sample} to {@param builder}; returns the builder */
+    public StringBuilder appendTo(@NotNull Sample sample, @NotNull StringBuilder builder) {
+        int start = builder.length();
+        for (int i = 0; i < fields.length; i++) {
+            String separator = separators[i];
+            if ((separator != null) && (builder.length() > start) && !endsWith(builder, start, SPACER)) builder.append(separator);
+            if (fields[i] == SAMPLE_PACKED) {
+                builder.append(sample.getPacked());
+            } else {
+                builder.append(sample.value(fields[i]));
+            }
+        }
+        return builder;
+    }
+
+    /** Get fields of {@param sample} as new string */
+    public String format(@NotNull Sample sample) {
+        return appendTo(sample, new StringBuilder(32)).toString();
+    }
+
+    private static boolean endsWith(StringBuilder builder, int start, String suffix) {
+        int from = builder.length() - suffix.length();
+        if (from < start) return false;
+        for (int i = 0; i < suffix.length(); i++) {
+            if (builder.charAt(from + i) != suffix.charAt(i)) return false;
+        }
+        return true;
+    }
+}
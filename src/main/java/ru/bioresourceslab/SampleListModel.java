@@ -0,0 +1,91 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.List;
+
+/** Модель списка образцов отправки.
+ * Works like DefaultListModel, but ranges of samples are inserted, removed and replaced by one array copy
+ * with one event for the whole range, so pasting or deleting many samples costs as one change. */
+
+public class SampleListModel extends AbstractListModel<Sample> {
+    private Sample[] elements = new Sample[16];
+    private int size = 0;
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public Sample getElementAt(int index) {
+        return get(index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Sample get(int index) {
+        if ((index >= size) || (index < 0)) throw new ArrayIndexOutOfBoundsException(index);
+        return elements[index];
+    }
+
+    public void addElement(Sample sample) {
+        add(size, sample);
+    }
+
+    public void add(int index, Sample sample) {
+        replace(index, index, new Sample[]{sample});
+    }
+
+    /** Insert {@param samples} at {@param index} */
+    public void addAll(int index, @NotNull List<Sample> samples) {
+        replace(index, index, samples.toArray(new Sample[0]));
+    }
+
+    public Sample set(int index, Sample sample) {
+        Sample old = get(index);
+        elements[index] = sample;
+        fireContentsChanged(this, index, index);
+        return old;
+    }
+
+    public Sample remove(int index) {
+        Sample old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    /** Remove samples from {@param from} (inclusive) to {@param to} (exclusive) */
+    public void removeRange(int from, int to) {
+        replace(from, to, new Sample[0]);
+    }
+
+    /** Replace samples from {@param from} (inclusive) to {@param to} (exclusive) with {@param samples}.
+     * Replaced part of the range is reported as changed, the rest as added or removed */
+    public void replace(int from, int to, @NotNull Sample[] samples) {
+        if ((from < 0) || (from > to) || (to > size)) throw new ArrayIndexOutOfBoundsException("range " + from + ".." + to);
+        int shift = samples.length - (to - from);
+        if (size + shift > elements.length) elements = Arrays.copyOf(elements, Math.max(size + shift, elements.length * 2));
+        System.arraycopy(elements, to, elements, to + shift, size - to);
+        System.arraycopy(samples, 0, elements, from, samples.length);
+        if (shift < 0) Arrays.fill(elements, size + shift, size, null);
+        size += shift;
+
+        int changed = Math.min(samples.length, to - from);
+        if (changed > 0) fireContentsChanged(this, from, from + changed - 1);
+        if (shift > 0) fireIntervalAdded(this, from + changed, from + changed + shift - 1);
+        if (shift < 0) fireIntervalRemoved(this, from + changed, from + changed - shift - 1);
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        int last = size - 1;
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+        fireIntervalRemoved(this, 0, last);
+    }
+}
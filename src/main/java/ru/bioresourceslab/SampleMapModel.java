@@ -0,0 +1,66 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+/** Модель карты образцов отправки (раскладка по коробкам).
+ * Cells are not stored: a cell is translated to the sample index by box options on request, separator rows
+ * between boxes are empty, and the count of rows follows the count of samples. So the map takes no memory
+ * besides the list, and new box options are applied at once. Changes of the list are reported by the owning
+ * shipment through {@code update(...)}; the model is read on the event dispatch thread, as the list is changed. */
+
+class SampleMapModel extends AbstractTableModel {
+    private final ListModel<Sample> samples;
+    private final BoxOptions boxOptions;
+    private int rows = 0;                   // count of rows reported to listeners
+
+    SampleMapModel(@NotNull ListModel<Sample> samples, @NotNull BoxOptions boxOptions) {
+        this.samples = samples;
+        this.boxOptions = boxOptions;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return boxOptions.getColumnsCount();
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if ((row < 0) || (column < 0) || (column >= getColumnCount()) || boxOptions.isSeparator(row)) return null;
+        int index = boxOptions.translate(row, column);
+        return (index < samples.getSize()) ? samples.getElementAt(index) : null;
+    }
+
+    /** Samples from {@param from} (inclusive) to {@param to} (exclusive) are changed;
+     * the count of rows is taken from the current size of the list */
+    void update(int from, int to) {
+        int count = samples.getSize();
+        from = Math.max(from, 0);
+        to = Math.min(to, count);
+        int oldRows = rows;
+        rows = (count == 0) ? 0 : boxOptions.translate(count - 1).y + 1;
+        int firstRow = Math.min(boxOptions.translate(from).y, rows);
+        int lastRow = (to > from) ? boxOptions.translate(to - 1).y : firstRow - 1;
+        // removed samples in the last row
+        if ((to == count) && (count != 0)) lastRow = Math.max(lastRow, rows - 1);
+
+        lastRow = Math.min(lastRow, Math.min(rows, oldRows) - 1);
+        if (firstRow <= lastRow) fireTableRowsUpdated(firstRow, lastRow);
+        if (rows > oldRows) fireTableRowsInserted(oldRows, rows - 1);
+        if (rows < oldRows) fireTableRowsDeleted(rows, oldRows - 1);
+    }
+
+    /** Box options are changed: all cells and columns are reported as changed */
+    void layoutChanged() {
+        int count = samples.getSize();
+        rows = (count == 0) ? 0 : boxOptions.translate(count - 1).y + 1;
+        fireTableStructureChanged();
+    }
+}
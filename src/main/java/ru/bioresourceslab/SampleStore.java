@@ -0,0 +1,267 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Столбцовое хранилище образцов отправки.
+ * Fields of all samples are kept in parallel arrays indexed by slot: codes as strings, location parts as ids
+ * of a shared string dictionary, weights as doubles, packed flags in a BitSet. A sample added to the store
+ * becomes its view (see Sample), so repeated storages, racks and boxes are kept once for the whole shipment.
+ * Slots of removed samples are reused. The store is changed only on the writer thread of the owning shipment. */
+
+public class SampleStore {
+    /** Flags of location parts in order of their columns */
+    private static final int[] LOCATION_PARTS = {SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN};
+    private static final int PARTS = LOCATION_PARTS.length;
+
+    // estimation of memory for 64-bit JVM with compressed references
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int MAP_ENTRY = 32;
+    // Sample object: 7 string fields, packed flag, store reference and slot; a view keeps its fields set to null
+    private static final long SAMPLE_OBJECT = align(OBJECT_HEADER + 7 * REFERENCE + 1 + REFERENCE + 4);
+
+    // dictionary of location values
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> strings = new ArrayList<>();
+
+    // columns
+    private String[] codes = new String[16];
+    private int[] locations = new int[16 * PARTS];
+    private int[] masks = new int[16];             // ids of sample masks (case codes), see Sample.getMask()
+    private double[] weights = new double[16];
+    private final BitSet packed = new BitSet();
+    private final HashMap<Integer, String> weightTexts = new HashMap<>();   // weights which are not restored from numbers
+
+    // formatted values (see SampleFormat.CACHED); a value is valid while the stamp of its slot is not changed
+    private final Formatted[][] formatted = new Formatted[SampleFormat.CACHED.length][];
+    private int[] stamps = new int[16];
+
+    // slots
+    private int used = 0;                          // slots ever used: [0, used)
+    private int[] free = new int[16];              // released slots
+    private int freeCount = 0;
+
+    /** Put values of detached {@param sample} into a new slot; returns the slot */
+    int allocate(@NotNull Sample sample) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            slot = used++;
+            if (slot == codes.length) grow();
+        }
+        codes[slot] = sample.get(SAMPLE_CODE);
+        // the code is never changed in the store, so it is parsed once
+        masks[slot] = id(Sample.mask(codes[slot]));
+        for (int part = 0; part < PARTS; part++) {
+            locations[slot * PARTS + part] = id(sample.get(LOCATION_PARTS[part]));
+        }
+        setWeight(slot, sample.get(SAMPLE_WEIGHT));
+        packed.set(slot, sample.getPacked());
+        stamps[slot]++;
+        return slot;
+    }
+
+    /** Free {@param slot}; it can be given to another sample */
+    void release(int slot) {
+        codes[slot] = null;
+        weightTexts.remove(slot);
+        packed.clear(slot);
+        stamps[slot]++;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+    }
+
+    private void grow() {
+        int capacity = codes.length * 2;
+        codes = Arrays.copyOf(codes, capacity);
+        locations = Arrays.copyOf(locations, capacity * PARTS);
+        masks = Arrays.copyOf(masks, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        stamps = Arrays.copyOf(stamps, capacity);
+        for (int id = 0; id < formatted.length; id++) {
+            if (formatted[id] != null) formatted[id] = Arrays.copyOf(formatted[id], capacity);
+        }
+    }
+
+    // id of {@param value} in the dictionary
+    private int id(String value) {
+        if (value == null) value = "";
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = strings.size();
+            ids.put(value, id);
+            strings.add(value);
+        }
+        return id;
+    }
+
+    /** Get single {@param field} of sample in {@param slot} */
+    String get(int slot, int field) {
+        switch (field) {
+            case SAMPLE_CODE:
+                return codes[slot];
+            case SAMPLE_WEIGHT:
+                return getWeight(slot);
+            case SAMPLE_STORAGE:
+                return strings.get(locations[slot * PARTS]);
+            case SAMPLE_RACK:
+                return strings.get(locations[slot * PARTS + 1]);
+            case SAMPLE_BOX:
+                return strings.get(locations[slot * PARTS + 2]);
+            case SAMPLE_ROW:
+                return strings.get(locations[slot * PARTS + 3]);
+            case SAMPLE_COLUMN:
+                return strings.get(locations[slot * PARTS + 4]);
+            default:
+                throw new IllegalArgumentException("single field expected");
+        }
+    }
+
+    /** Get weight of sample in {@param slot} as text */
+    String getWeight(int slot) {
+        String text = weightTexts.get(slot);
+        if (text != null) return text;
+        double weight = weights[slot];
+        return Double.isNaN(weight) ? "" : weightText(weight);
+    }
+
+    /** Set weight of sample in {@param slot}: numbers are kept as double, other text as is */
+    void setWeight(int slot, String weight) {
+        stamps[slot]++;
+        weights[slot] = Double.NaN;
+        weightTexts.remove(slot);
+        if ((weight == null) || weight.isEmpty()) return;
+        try {
+            weights[slot] = Double.parseDouble(weight);
+            // text is kept only if it is not restored exactly from the number ("0.50")
+            if (weightText(weights[slot]).equals(weight)) return;
+        } catch (NumberFormatException ignored) {
+        }
+        weightTexts.put(slot, weight);
+    }
+
+    /** Get weight of sample in {@param slot} as number; NaN if it is empty or not a number */
+    double getWeightValue(int slot) {
+        return weights[slot];
+    }
+
+    boolean isPacked(int slot) {
+        return packed.get(slot);
+    }
+
+    void setPacked(int slot, boolean value) {
+        stamps[slot]++;
+        packed.set(slot, value);
+    }
+
+    /** Get {@param sample} in {@param slot} formatted by cached {@param format}.
+     * The value is formatted once and kept until weight or packed status of the sample is changed */
+    String format(int slot, @NotNull SampleFormat format, @NotNull Sample sample) {
+        Formatted[] values = formatted[format.getCacheId()];
+        if (values == null) formatted[format.getCacheId()] = values = new Formatted[codes.length];
+        int stamp = stamps[slot];
+        Formatted value = values[slot];
+        if ((value == null) || (value.stamp != stamp)) {
+            // if the sample is changed meanwhile, the stamp differs and the value is formatted again next time
+            values[slot] = value = new Formatted(stamp, format.format(sample));
+        }
+        return value.text;
+    }
+
+    // formatted value with stamp of the sample state
+    private static final class Formatted {
+        final int stamp;
+        final String text;
+
+        Formatted(int stamp, String text) {
+            this.stamp = stamp;
+            this.text = text;
+        }
+    }
+
+    /** Get mask of sample in {@param slot} */
+    String getMask(int slot) {
+        return strings.get(masks[slot]);
+    }
+
+    /** Get id of mask of sample in {@param slot}: samples of the same case have equal ids */
+    int getMaskId(int slot) {
+        return masks[slot];
+    }
+
+    /** Get id of location part {@param part} (0 - storage ... 4 - column) of sample in {@param slot} */
+    int getLocationId(int slot, int part) {
+        return locations[slot * PARTS + part];
+    }
+
+    /** Get number of samples in the store */
+    public int getSize() {
+        return used - freeCount;
+    }
+
+    private static String weightText(double value) {
+        if ((value == Math.rint(value)) && (Math.abs(value) < 1e15)) return Long.toString((long) value);
+        return Double.toString(value);
+    }
+
+    /** Report of estimated memory of the store compared with the same samples as separate objects with string fields */
+    public String getFootprintReport() {
+        int count = getSize();
+        long objects = 0;
+        long columns = SAMPLE_OBJECT * count;          // view object for every sample
+        for (int slot = 0; slot < used; slot++) {
+            if (codes[slot] == null) continue;
+            String weight = getWeight(slot);
+            long fields = stringSize(codes[slot]) + (weight.isEmpty() ? 0 : stringSize(weight));
+            for (int part = 0; part < PARTS; part++) {
+                fields += stringSize(strings.get(locations[slot * PARTS + part]));
+            }
+            objects += SAMPLE_OBJECT + fields;
+            columns += stringSize(codes[slot]);
+        }
+        // arrays and dictionary
+        columns += align(ARRAY_HEADER + (long) REFERENCE * codes.length)
+                + align(ARRAY_HEADER + 4L * locations.length)
+                + align(ARRAY_HEADER + 4L * masks.length)
+                + align(ARRAY_HEADER + 8L * weights.length)
+                + align(ARRAY_HEADER + 4L * free.length)
+                + align(ARRAY_HEADER + 4L * stamps.length)
+                + packed.size() / 8;
+        for (String value : strings) {
+            columns += stringSize(value) + MAP_ENTRY + 2 * REFERENCE;
+        }
+        for (String text : weightTexts.values()) {
+            columns += stringSize(text) + MAP_ENTRY + align(OBJECT_HEADER + 4);
+        }
+        // formatted values are counted too: they are kept for painting
+        for (Formatted[] values : formatted) {
+            if (values == null) continue;
+            columns += align(ARRAY_HEADER + (long) REFERENCE * values.length);
+            for (Formatted value : values) {
+                if (value != null) columns += align(OBJECT_HEADER + 4 + REFERENCE) + stringSize(value.text);
+            }
+        }
+
+        long saving = (objects == 0) ? 0 : 100 - columns * 100 / objects;
+        return "Память списка (" + count + " образцов, " + strings.size() + " значений позиций и масок): объекты ~"
+                + (objects >> 10) + " КБ, столбцы ~" + (columns >> 10) + " КБ, экономия " + saving + "%";
+    }
+
+    // String with char array
+    private static long stringSize(String value) {
+        return align(OBJECT_HEADER + REFERENCE + 4) + align(ARRAY_HEADER + 2L * value.length());
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
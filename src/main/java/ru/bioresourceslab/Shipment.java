@@ -1,19 +1,22 @@
 package ru.bioresourceslab;
 
-import org.apache.poi.ss.usermodel.*;
 import org.intellij.lang.annotations.MagicConstant;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableModel;
 import java.awt.Font;
 import java.awt.*;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,15 +31,33 @@ import static ru.bioresourceslab.ShipmentEvent.*;
  *      3) set identifiers (needed for correct loading from excel)
  *      4) set box options and export parameters
  *      5) load list
- *      6) add listeners for refreshing UI: check documentation in ShipmentListener! */
+ *      6) add listeners for refreshing UI: check documentation in ShipmentListener!
+ * All changes are made on the writer thread (see AbstractShipment): mutators may be called from any thread */
 
 public class Shipment extends AbstractShipment {
     private String number;                      // shipment number
     private Sample identifiers;                 // field identifiers (excel column names)
     private final Logger log = Logger.getLogger("SPA Logger");
     private final BoxOptions boxOptions;              // box options container
-    private final DefaultListModel<Sample> samples;   // list of samples
-    private final DefaultTableModel map;              // table with map
+    private final SampleListModel samples;            // list of samples (views of the store)
+    private SampleStore store = new SampleStore();    // fields of samples
+    private final CaseIndex cases;                    // bounds of cases in the list
+    private final PackedIndex packed;                 // packed statuses by positions
+    private final CodeIndex codes;                    // positions by sample codes
+    private final LocationIndex locations;            // samples by storage locations
+    private final BoxIndex boxes;                     // summaries of boxes
+    private int repeats = 0;                          // repeated codes found by the current change
+    private String repeatedCode;                      // the first of them
+    private final SampleMapModel map;                 // table with map
+    private boolean streamingImport = true;           // read excel files without loading the whole workbook
+    private final ExecutorService exporter;           // writes files in order of calls
+    private ShipmentJournal journal;                  // journal of changes, null if not used
+
+    /** File of autosave (see SnapshotFile) */
+    public static final String AUTOSAVE_FILE = "list_autosave" + SnapshotFile.EXTENSION;
+
+    /** Seconds to wait for files being written when the shipment is closed */
+    public static final int EXPORT_TIMEOUT = 30;
 
     // export params
     private int cellWidth = 16;
@@ -48,11 +69,19 @@ public class Shipment extends AbstractShipment {
     public Shipment(Sample identifiers) {
         this.identifiers = identifiers;
         boxOptions = new BoxOptions(9, 9, 2);
-        samples = new DefaultListModel<>();
-        map = new DefaultTableModel(9, 9);
-        map.setRowCount(0);
-        map.setColumnCount(boxOptions.getColumnsCount());
+        samples = new SampleListModel();
+        cases = new CaseIndex(samples);
+        boxes = new BoxIndex(samples, boxOptions);
+        packed = new PackedIndex(samples);
+        codes = new CodeIndex(samples);
+        locations = new LocationIndex(store);
+        map = new SampleMapModel(samples, boxOptions);
         number = "N";
+        exporter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SPA export");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     // constructor with default identifiers
@@ -62,7 +91,36 @@ public class Shipment extends AbstractShipment {
 
     /** Set shipment number */
     public void setNumber(String number) {
+        if (!isWriter()) {
+            write(() -> setNumber(number));
+            return;
+        }
+        if (number.equals(this.number)) return;
         this.number = number;
+        changed();
+        // if the journal is full, the snapshot is saved: it must have the new number
+        if (journal != null) journalWritten(journal.number(number));
+    }
+
+    /** Restore number and box options of the session saved in {@param snapshot} (see SnapshotFile) */
+    public void restoreOptions(@NotNull ShipmentSnapshot snapshot) {
+        BoxOptions options = snapshot.getBoxOptions();
+        setBoxOptions(options.getRowsCount(), options.getColumnsCount(), options.getSeparator());
+        setNumber(snapshot.getNumber());
+    }
+
+    /** Get shipment number */
+    public String getNumber() {
+        return number;
+    }
+
+    /** Set journal for all further changes of the shipment; 'null' to stop journaling */
+    public void setJournal(ShipmentJournal journal) {
+        if (!isWriter()) {
+            write(() -> setJournal(journal));
+            return;
+        }
+        this.journal = journal;
     }
 
     /** Set in-file names of columns */
@@ -70,10 +128,22 @@ public class Shipment extends AbstractShipment {
         this.identifiers = identifiers;
     }
 
+    /** Set import mode: streaming (event-based) reading of excel files or loading the whole workbook */
+    public void setStreamingImport(boolean streamingImport) {
+        this.streamingImport = streamingImport;
+    }
+
     /** Set box parameters */
     public void setBoxOptions(int rows, int columns, int separator) {
+        if (!isWriter()) {
+            write(() -> setBoxOptions(rows, columns, separator));
+            return;
+        }
         boxOptions.set(rows, columns, separator);
-        map.setColumnCount(columns);
+        boxes.invalidate(0);
+        changed();
+        if (journal != null) journalWritten(journal.boxOptions(rows, columns, separator));
+        map.layoutChanged();
     }
 
     /** Set export fonts and cell width */
@@ -100,40 +170,279 @@ public class Shipment extends AbstractShipment {
 
     /** Clear list and table; set shipment number to '0' */
     public void clear() {
-        synchronized (samples) {
-            samples.clear();
+        if (!isWriter()) {
+            write(() -> clear());
+            return;
+        }
+        // removed samples take their fields back, so they don't refer to the dropped store
+        for (int index = 0; index < samples.size(); index++) {
+            samples.get(index).detach();
         }
-        map.setRowCount(0);
-        map.setColumnCount(boxOptions.getColumnsCount());
+        samples.clear();
+        codes.clear();
+        invalidate(0);
+        store = new SampleStore();
+        locations.clear(store);
+        if (journal != null) journalWritten(journal.clear());
+        updateMap(0);
         number = "0";
         fireEvent(this, EVENT_SAMPLE_REMOVED, -1);
     }
 
-    /** Insert array of samples {@param newSamples} at {@param index} skipping null values */
-    public void addSamples(@NotNull ArrayList<Sample> newSamples, int index) {
+    /** Insert array of samples {@param newSamples} at {@param index} in their order skipping null values.
+     * The list is shifted once and the map is refreshed from {@param index}; one event is fired for all samples */
+    public void addSamples(@NotNull List<Sample> newSamples, int index) {
+        if (!isWriter()) {
+            write(() -> addSamples(newSamples, index));
+            return;
+        }
+        if ((index > samples.size()) || (index < 0)) return;
+        ArrayList<Sample> added = new ArrayList<>(newSamples.size());
         for (Sample sample : newSamples) {
-            synchronized (samples) {
-                if (sample != null) samples.add(index, sample);
+            if (sample != null) added.add(attach(sample));
+        }
+        samples.addAll(index, added);
+        invalidate(index);
+        if (journal != null) {
+            boolean written = true;
+            for (int i = 0; written && (i < added.size()); i++) {
+                written = journal.insert(index + i, added.get(i));
             }
+            journalWritten(written);
+        }
+        reportRepeats();
+        if (added.isEmpty()) return;
+        updateMap(index);
+        fireEvent(this, EVENT_SAMPLE_ADDED, index, index, added, Collections.emptyList());
+    }
+
+    /** Add array of samples {@param newSamples} to the end of list skipping null values.
+     * Only new cells of the map are filled, so adding by batches costs proportionally to the batch size */
+    public void appendSamples(@NotNull List<Sample> newSamples) {
+        if (!isWriter()) {
+            write(() -> appendSamples(newSamples));
+            return;
+        }
+        int first = samples.size();
+        ArrayList<Sample> added = new ArrayList<>(newSamples.size());
+        invalidate(first);
+        for (Sample sample : newSamples) {
+            if (sample == null) continue;
+            sample = attach(sample);
+            samples.addElement(sample);
+            added.add(sample);
+            if (journal != null) journalWritten(journal.insert(samples.size() - 1, sample));
         }
-        convertToMap();
-        fireEvent(this, EVENT_SAMPLE_ADDED, index);
+        reportRepeats();
+        if (samples.size() == first) return;
+
+        updateMap(first);
+        fireEvent(this, EVENT_SAMPLE_ADDED, samples.size() - 1, first, added, Collections.emptyList());
+    }
+
+    /** Merge updated samples list {@param newSamples} into the current one by sample codes.
+     * Samples absent in the new list are removed, new ones are inserted after their predecessor in the new list,
+     * retained samples keep their place, packed status and weight; only their location is updated if changed.
+     * The map is refreshed from the first inserted or removed sample; an event is fired for every change. */
+    public void mergeSamples(@NotNull List<Sample> newSamples) {
+        if (!isWriter()) {
+            write(() -> mergeSamples(newSamples));
+            return;
+        }
+        // new samples by code (the first one wins if codes are repeated)
+        HashMap<String, Sample> fresh = new HashMap<>();
+        for (Sample sample : newSamples) {
+            if (sample != null) fresh.putIfAbsent(sample.get(SAMPLE_CODE), sample);
+        }
+        ArrayList<int[]> events = new ArrayList<>();     // {type, target} in order of changes
+        ArrayList<Sample> put = new ArrayList<>();       // sample put to the list by every change, or null
+        ArrayList<Sample> taken = new ArrayList<>();     // sample taken from the list by every change, or null
+        int firstShift = samples.size();                 // map is not changed before this index
+        int changed = 0;
+
+        // removals and location changes
+        HashSet<String> current = new HashSet<>();
+        for (int index = samples.size() - 1; index >= 0; index--) {
+            Sample sample = samples.get(index);
+            Sample update = fresh.get(sample.get(SAMPLE_CODE));
+            if (update == null) {
+                samples.remove(index);
+                detach(sample);
+                if (journal != null) journalWritten(journal.remove(index));
+                events.add(new int[]{EVENT_SAMPLE_REMOVED, index});
+                put.add(null);
+                taken.add(sample);
+                firstShift = index;
+                continue;
+            }
+            current.add(sample.get(SAMPLE_CODE));
+            if (!update.get(SAMPLE_LOCATION).equals(sample.get(SAMPLE_LOCATION))) {
+                Sample moved = new Sample(sample.get(SAMPLE_CODE), sample.get(SAMPLE_WEIGHT), update.get(SAMPLE_STORAGE),
+                        update.get(SAMPLE_RACK), update.get(SAMPLE_BOX), update.get(SAMPLE_ROW), update.get(SAMPLE_COLUMN));
+                moved.setPacked(sample.getPacked());
+                // the old sample is removed first, so its code is not counted as repeated
+                detach(sample);
+                moved = attach(moved);
+                samples.set(index, moved);
+                codes.set(index, moved);
+                boxes.changed(index);
+                if (journal != null) journalWritten(journal.set(index, moved));
+                events.add(new int[]{EVENT_SAMPLE_CHANGED, index});
+                put.add(moved);
+                taken.add(sample);
+                changed++;
+            }
+        }
+
+        // group inserted samples by the retained sample preceding them in the new list
+        ArrayList<Sample> head = new ArrayList<>();
+        HashMap<String, ArrayList<Sample>> tails = new HashMap<>();
+        ArrayList<Sample> group = head;
+        HashSet<String> seen = new HashSet<>();
+        for (Sample sample : newSamples) {
+            if ((sample == null) || !seen.add(sample.get(SAMPLE_CODE))) continue;
+            if (current.contains(sample.get(SAMPLE_CODE))) {
+                group = tails.computeIfAbsent(sample.get(SAMPLE_CODE), code -> new ArrayList<>());
+            } else {
+                group.add(sample);
+            }
+        }
+
+        // insertions
+        int index = 0;
+        for (Sample sample : head) {
+            sample = attach(sample);
+            samples.add(index, sample);
+            if (journal != null) journalWritten(journal.insert(index, sample));
+            events.add(new int[]{EVENT_SAMPLE_ADDED, index});
+            put.add(sample);
+            taken.add(null);
+            firstShift = Math.min(firstShift, index);
+            index++;
+        }
+        while (index < samples.size()) {
+            ArrayList<Sample> tail = tails.remove(samples.get(index).get(SAMPLE_CODE));
+            index++;
+            if (tail == null) continue;
+            for (Sample sample : tail) {
+                sample = attach(sample);
+                samples.add(index, sample);
+                if (journal != null) journalWritten(journal.insert(index, sample));
+                events.add(new int[]{EVENT_SAMPLE_ADDED, index});
+                put.add(sample);
+                taken.add(null);
+                firstShift = Math.min(firstShift, index);
+                index++;
+            }
+        }
+        invalidate(firstShift);
+        reportRepeats();
+
+        updateMap(firstShift);
+        for (int[] event : events) {
+            // cells after the first shift are already refreshed
+            if ((event[0] == EVENT_SAMPLE_CHANGED) && (event[1] < firstShift)) {
+                updateMap(event[1], event[1] + 1);
+            }
+        }
+        int added = 0;
+        int removed = 0;
+        for (int i = 0; i < events.size(); i++) {
+            int[] event = events.get(i);
+            if (event[0] == EVENT_SAMPLE_ADDED) added++;
+            if (event[0] == EVENT_SAMPLE_REMOVED) removed++;
+            // indexes of earlier changes may be shifted by later ones, but not before the first shift
+            fireEvent(this, event[0], event[1], Math.min(event[1], firstShift),
+                    (put.get(i) == null) ? Collections.emptyList() : Collections.singletonList(put.get(i)),
+                    (taken.get(i) == null) ? Collections.emptyList() : Collections.singletonList(taken.get(i)));
+        }
+        log.info("Список обновлен: добавлено " + added + ", удалено " + removed + ", перемещено " + changed + ". ");
     }
 
     /** Remove sample from list at {@param index} */
     public void removeSample(int index) {
+        removeRange(index, index + 1);
+    }
+
+    /** Remove samples from {@param from} (inclusive) to {@param to} (exclusive).
+     * The list is shifted once and the map is refreshed from {@param from}; one event is fired for all samples */
+    public void removeRange(int from, int to) {
+        if (!isWriter()) {
+            write(() -> removeRange(from, to));
+            return;
+        }
 //      also can use if JavaSource 1.9+
 //        Objects.checkIndex(index, samples.getSize());
-        if ((index >= samples.size()) || (index < 0)) return;
-        synchronized (samples) {
-            samples.remove(index);
+        if ((from >= samples.size()) || (from < 0) || (to <= from)) return;
+        int end = Math.min(to, samples.size());
+        ArrayList<Sample> removed = new ArrayList<>(end - from);
+        for (int index = from; index < end; index++) {
+            removed.add(samples.get(index));
+            detach(samples.get(index));
+        }
+        samples.removeRange(from, end);
+        invalidate(from);
+        if (journal != null) {
+            boolean written = true;
+            for (int i = from; written && (i < end); i++) {
+                written = journal.remove(from);
+            }
+            journalWritten(written);
+        }
+        updateMap(from);
+        fireEvent(this, EVENT_SAMPLE_REMOVED, from, from, Collections.emptyList(), removed);
+    }
+
+    /** Replace samples from {@param from} (inclusive) to {@param to} (exclusive) with {@param newSamples} skipping null values.
+     * The list is shifted once and the map is refreshed from {@param from}; one event is fired:
+     * 'added' or 'removed' if the count of samples is changed, otherwise 'changed' */
+    public void replaceRange(int from, int to, @NotNull List<Sample> newSamples) {
+        if (!isWriter()) {
+            write(() -> replaceRange(from, to, newSamples));
+            return;
+        }
+        if ((from > samples.size()) || (from < 0) || (to < from)) return;
+        int end = Math.min(to, samples.size());
+        ArrayList<Sample> added = new ArrayList<>(newSamples.size());
+        ArrayList<Sample> removed = new ArrayList<>(end - from);
+        for (int index = from; index < end; index++) {
+            removed.add(samples.get(index));
+            detach(samples.get(index));
+        }
+        for (Sample sample : newSamples) {
+            if (sample != null) added.add(attach(sample));
+        }
+        samples.replace(from, end, added.toArray(new Sample[0]));
+        invalidate(from);
+        if (journal != null) {
+            int replaced = Math.min(end - from, added.size());
+            boolean written = true;
+            for (int i = 0; written && (i < replaced); i++) {
+                written = journal.set(from + i, added.get(i));
+            }
+            for (int i = replaced; written && (i < end - from); i++) {
+                written = journal.remove(from + replaced);
+            }
+            for (int i = replaced; written && (i < added.size()); i++) {
+                written = journal.insert(from + i, added.get(i));
+            }
+            journalWritten(written);
         }
-        convertToMap();
-        fireEvent(this, EVENT_SAMPLE_REMOVED, index);
+        reportRepeats();
+        int shift = added.size() - (end - from);
+        // if the count is kept, samples after the range stay in their cells
+        if (shift == 0) updateMap(from, end); else updateMap(from);
+        fireEvent(this, (shift > 0) ? EVENT_SAMPLE_ADDED : (shift < 0) ? EVENT_SAMPLE_REMOVED : EVENT_SAMPLE_CHANGED, from,
+                from, added, removed);
     }
 
     /** Move element from {@param index} to {@param destination} */
     public void moveSample(int index, int destination) {
+        if (!isWriter()) {
+            int target = destination;
+            write(() -> moveSample(index, target));
+            return;
+        }
         if ((index >= samples.size()) || (index < 0)) return;
         if (destination >= samples.size())
             destination = samples.size() - 1;
@@ -142,14 +451,20 @@ public class Shipment extends AbstractShipment {
 
         Sample sample = samples.get(index);
         Sample backup = samples.get(destination);
-        synchronized (samples) {
-            samples.set(destination, sample);
-            samples.set(index, backup);
-        }
-
-        map.setValueAt(sample, translate(destination).y, translate(destination).x);
-        map.setValueAt(backup, translate(index).y, translate(index).x);
-        fireEvent(this, EVENT_SAMPLE_MOVED, destination);
+        samples.set(destination, sample);
+        samples.set(index, backup);
+        cases.invalidate(Math.min(index, destination));
+        packed.swap(index, destination);
+        codes.set(destination, sample);
+        codes.set(index, backup);
+        boxes.changed(index);
+        boxes.changed(destination);
+        if (journal != null) journalWritten(journal.swap(index, destination));
+
+        updateMap(destination, destination + 1);
+        updateMap(index, index + 1);
+        fireEvent(this, EVENT_SAMPLE_MOVED, destination, Math.min(index, destination), Arrays.asList(sample, backup),
+                Collections.emptyList());
     }
 
     /** Get sample by index.
@@ -171,11 +486,38 @@ public class Shipment extends AbstractShipment {
 
     /** Replace element at {@param index} with {@param newSample} if it is not null */
     public void setSample(int index, Sample newSample) {
+        if (!isWriter()) {
+            Sample sample = newSample;
+            write(() -> setSample(index, sample));
+            return;
+        }
         if ((index >= samples.size()) || (index < 0)) return;
-        synchronized (samples) {
-            if (newSample != null) samples.set(index, newSample);
+        Sample old = samples.get(index);
+        if (newSample == null) return;
+        detach(old);
+        newSample = attach(newSample);
+        samples.set(index, newSample);
+        cases.invalidate(index);
+        packed.set(index, newSample.getPacked());
+        codes.set(index, newSample);
+        boxes.changed(index);
+        if (journal != null) journalWritten(journal.set(index, newSample));
+        reportRepeats();
+        updateMap(index, index + 1);
+        fireEvent(this, EVENT_SAMPLE_CHANGED, index, index, Collections.singletonList(newSample), Collections.singletonList(old));
+    }
+
+    /** Set {@param weight} of sample at {@param index} */
+    public void setSampleWeight(int index, String weight) {
+        if (!isWriter()) {
+            write(() -> setSampleWeight(index, weight));
+            return;
         }
-        fireEvent(this, EVENT_SAMPLE_CHANGED, index);
+        if ((index >= samples.size()) || (index < 0)) return;
+        samples.get(index).setWeight(weight);
+        boxes.changed(index);
+        if (journal != null) journalWritten(journal.weight(index, weight));
+        fireEvent(this, EVENT_SAMPLE_CHANGED, index, index, Collections.singletonList(samples.get(index)), Collections.emptyList());
     }
 
     /** Flag for {@code getNextIndex(...)} to default finding: down the list, list as loop, bypass packed */
@@ -193,37 +535,50 @@ public class Shipment extends AbstractShipment {
     /** Return the next sample index in the list starting with {@param index} and corresponding to {@param flags}
      * If there is no samples that meet the requirements, returns '-1' */
     public int getNextIndex(int index, @MagicConstant(flags = {NEXT_DEFAULT, NEXT_REVERSED, NEXT_STOP_WHEN_END, NEXT_EVERY_ITEM}) int flags) {
-        int count = samples.size();
-        for (int i = 0; i < count; i++) {
-            // refresh index
-            index = ((flags & NEXT_REVERSED) != 0) ? --index : ++index;
-            // check if index out of range and loop selection flag is set
-            if (((flags & NEXT_STOP_WHEN_END) != 0) && ((index >= count) || (index < 0))) return -1;  // reached end of list
-            if (index < 0)
-                index = count - 1;
-            if (index >= count)
-                index = 0;
-
-            if (((flags & NEXT_EVERY_ITEM) != 0) || sampleIsNotPacked(index)) {
-                return index;
-            }
+        if (!isWriter()) {
+            int start = index;
+            return read(() -> getNextIndex(start, flags));
         }
-        // if all samples are packed
-        return -1;
+        int count = samples.size();
+        if (count == 0) return -1;
+        boolean reversed = (flags & NEXT_REVERSED) != 0;
+        // refresh index
+        index = reversed ? index - 1 : index + 1;
+        // check if index out of range and loop selection flag is set
+        if (((flags & NEXT_STOP_WHEN_END) != 0) && ((index >= count) || (index < 0))) return -1;  // reached end of list
+        if (index < 0)
+            index = count - 1;
+        if (index >= count)
+            index = 0;
+        if ((flags & NEXT_EVERY_ITEM) != 0) return index;
+
+        // unpacked sample up to the end of list, then from the other end if the list is a loop
+        int next = reversed ? packed.previousUnpacked(index) : packed.nextUnpacked(index);
+        if ((next == -1) && ((flags & NEXT_STOP_WHEN_END) == 0))
+            next = reversed ? packed.previousUnpacked(count - 1) : packed.nextUnpacked(0);
+        // if all samples are packed, returns '-1'
+        return next;
     }
 
     /** Return index of last sample with the same sample mask */
     public int getLastIndex(int index) {
+        if (!isWriter()) return read(() -> getLastIndex(index));
         if ((index >= samples.size()) || (index < 0)) return -1;
-        Sample sample = samples.get(index);
-        int count = samples.size();
+        return cases.getLast(index);
+    }
 
-        for (int i = index + 1; i < count; i++) {
-            Sample lastSample = samples.get(i);
-            if (!sample.getMask().equals(lastSample.getMask()))
-                return i - 1;
-        }
-        return samples.size() - 1;
+    /** Return index of first sample with the same sample mask */
+    public int getFirstIndex(int index) {
+        if (!isWriter()) return read(() -> getFirstIndex(index));
+        if ((index >= samples.size()) || (index < 0)) return -1;
+        return cases.getFirst(index);
+    }
+
+    /** Return count of neighbouring samples with the same sample mask as sample at {@param index} (size of its case) */
+    public int getCaseSize(int index) {
+        if (!isWriter()) return read(() -> getCaseSize(index));
+        if ((index >= samples.size()) || (index < 0)) return 0;
+        return cases.getSize(index);
     }
 
     /** Get position of sample with {@param index} in the table according to box options.
@@ -248,225 +603,201 @@ public class Shipment extends AbstractShipment {
         return index;
     }
 
+    /** Get summary of box {@param box} (from 0): packed and unpacked samples, weights and cases.
+     * Only boxes changed since the previous request are summed again */
+    public BoxSummary getBoxSummary(int box) {
+        if (!isWriter()) return read(() -> getBoxSummary(box));
+        return boxes.get(box);
+    }
+
+    /** Get count of samples in one box */
+    public int getBoxCapacity() {
+        return boxOptions.getCapacity();
+    }
+
+    /** Get index of {@param sample} in the list; '-1' if it is not a sample of this shipment */
+    int indexOf(@NotNull Sample sample) {
+        if (!isWriter()) return read(() -> indexOf(sample));
+        int slot = sample.getSlot();
+        if ((slot < 0) || !sample.isViewOf(store)) return -1;
+        int index = codes.position(slot);
+        return ((index < samples.size()) && (samples.get(index) == sample)) ? index : -1;
+    }
+
+    /** Get index of box of sample at {@param index} */
+    public int getBoxIndex(int index) {
+        return index / boxOptions.getCapacity();
+    }
+
+    /** Get index of sample with {@param code}; if several samples have this code, the first of them.
+     * Returns '-1' if there is no such sample */
+    public int findByCode(String code) {
+        if (!isWriter()) return read(() -> findByCode(code));
+        return codes.find(code);
+    }
+
+    /** Returns TRUE if more than one sample in the list has {@param code} */
+    public boolean isRepeatedCode(String code) {
+        if (!isWriter()) return read(() -> isRepeatedCode(code));
+        return codes.isRepeated(code);
+    }
+
+    /** Get indexes of samples stored in {@param storage}, {@param rack}, {@param box} in pick order:
+     * sorted by storage, rack, box, row and column. 'null' means any value, e.g. all samples of rack 3:
+     * {@code getPickList("freezer 1", "3", null, false)}. If {@param unpackedOnly} is TRUE, packed samples are skipped */
+    public int[] getPickList(String storage, String rack, String box, boolean unpackedOnly) {
+        if (!isWriter()) return read(() -> getPickList(storage, rack, box, unpackedOnly));
+        ArrayList<Integer> slots = locations.find(storage, rack, box, unpackedOnly);
+        int[] result = new int[slots.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = codes.position(slots.get(i));
+        }
+        return result;
+    }
+
+    /** Plan order of samples where a case (samples with equal masks) is not split between boxes, see CaseLayout.
+     * The list is not changed; the plan is shown to the user and applied by {@code applyCaseLayout(...)} */
+    public CaseLayout planCaseLayout() {
+        if (!isWriter()) return read(this::planCaseLayout);
+        Sample[] current = new Sample[samples.size()];
+        for (int index = 0; index < current.length; index++) {
+            current[index] = samples.get(index);
+        }
+        return CaseLayout.plan(current, boxOptions.getCapacity());
+    }
+
+    /** Reorder samples by {@param layout}.
+     * Returns FALSE if the list was changed after the layout was planned; the list is not reordered then */
+    public boolean applyCaseLayout(@NotNull CaseLayout layout) {
+        if (!isWriter()) return read(() -> applyCaseLayout(layout));
+        Sample[] arranged;
+        arranged = layout.arrange(samples);
+        if (arranged != null) {
+            // samples keep their slots in the store, so only indexes by position are rebuilt
+            samples.replace(0, arranged.length, arranged);
+            invalidate(0);
+            for (int index = 0; (journal != null) && (index < arranged.length); index++) {
+                journalWritten(journal.set(index, arranged[index]));
+            }
+        }
+        if (arranged == null) {
+            log.log(Level.WARNING, "Раскладка не применена: список был изменен. ");
+            return false;
+        }
+        updateMap(0);
+        fireEvent(this, EVENT_SAMPLE_CHANGED, 0, 0, Arrays.asList(arranged), Collections.emptyList());
+        log.info("Раскладка применена: разбитых случаев " + layout.getSplitAfter() + " (было " + layout.getSplitBefore() + "). ");
+        return true;
+    }
+
     /** Reverse sample packed status */
     public void revertSampleStatus(int index) {
-        if ((index >= samples.size()) || (index < 0)) return;
-        synchronized (samples) {
-            samples.get(index).setPacked(!samples.get(index).getPacked());
+        if (!isWriter()) {
+            write(() -> revertSampleStatus(index));
+            return;
         }
+        if ((index >= samples.size()) || (index < 0)) return;
+        samples.get(index).setPacked(!samples.get(index).getPacked());
+        packed.set(index, samples.get(index).getPacked());
+        boxes.changed(index);
+        if (journal != null) journalWritten(journal.packed(index, samples.get(index).getPacked()));
         fireEvent(this, EVENT_SAMPLE_CHANGED, index);
     }
 
+    /** Get report of memory used by samples (see SampleStore) */
+    public String getFootprintReport() {
+        return store.getFootprintReport();
+    }
+
     /** Get number of samples in this shipment */
     public int getSamplesCount() {
         return samples.size();
     }
 
-    /** Load samples list from .XLS or .XLSX file */
-    public void importList() {
+    /** Ask user for samples list file (.XLS, .XLSX, .CSV, .TSV or autosave .SPA) or directory with such files.
+     * Returns null if nothing is chosen */
+    public File chooseListFile() {
         JFileChooser openDialog = new JFileChooser();
-        openDialog.setFileFilter(new FileNameExtensionFilter("Excel files", "xls", "xlsx"));
+        openDialog.setFileFilter(new FileNameExtensionFilter("Excel & CSV files", "xls", "xlsx", "csv", "tsv", "txt", "spa"));
         openDialog.setAcceptAllFileFilterUsed(false);
-        openDialog.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        openDialog.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
         File desktopDir = new File((System.getProperty("user.home") + "/Desktop"));
         openDialog.setCurrentDirectory(desktopDir);
-        File file;
 
         if (openDialog.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
-            file = openDialog.getSelectedFile();
-        } else return;
-
-        Workbook workbook;
-        try {
-            workbook = WorkbookFactory.create(file, null, true);
-        } catch (IOException e) {
-            log.log(Level.SEVERE, "Ошибка импорта: не удалось открыть файл. ");
-            return;
+            return openDialog.getSelectedFile();
         }
+        return null;
+    }
 
-        int firstRowIndex = workbook.getSheetAt(0).getFirstRowNum();
-        Row fileRow = workbook.getSheetAt(0).getRow(firstRowIndex);
-        short firstColIndex = fileRow.getFirstCellNum();
-        short lastColIndex = fileRow.getLastCellNum();
-        // indexes of columns corresponding to the sample data
-        short indStorage = -1;
-        short indRack = -1;
-        short indBox = -1;
-        short indRow = -1;
-        short indColumn = -1;
-        short indCode = -1;
-        short indWeight = -1;
-
-        // finding columns with needed data
-        for (int index = firstColIndex; index < lastColIndex; index++) {
-            String value = fileRow.getCell(index).toString();
-
-            indStorage = value.equals(identifiers.get(SAMPLE_STORAGE)) ? (short) index : indStorage;
-            indRack = value.equals(identifiers.get(SAMPLE_RACK)) ? (short) index : indRack;
-            indBox = value.equals(identifiers.get(SAMPLE_BOX)) ? (short) index : indBox;
-            indRow = value.equals(identifiers.get(SAMPLE_ROW)) ? (short) index : indRow;
-            indColumn = value.equals(identifiers.get(SAMPLE_COLUMN)) ? (short) index : indColumn;
-            indCode = value.equals(identifiers.get(SAMPLE_CODE)) ? (short) index : indCode;
-            indWeight = value.equals(identifiers.get(SAMPLE_WEIGHT)) ? (short) index : indWeight;
-        } // end for
-        // check if not all columns found
-        if ((indStorage == -1) || (indRack == -1) || (indBox == -1) || (indRow == -1) || (indColumn == -1) || (indCode == -1)) {
-            log.log(Level.WARNING, "Ошибка импорта: не все столбцы данных найдены! ");
-            return;
-        }
-        // clear list
-        clear();
-        // reading data
-        int lastRowIndex = workbook.getSheetAt(0).getLastRowNum();
-        if (firstRowIndex == lastRowIndex) {
-            log.log(Level.WARNING, "Ошибка импорта: файл не содержит данных! ");
-            return;
-        }
-        for (int index = firstRowIndex + 1; index <= lastRowIndex; index++) {
-            fileRow = workbook.getSheetAt(0).getRow(index);
-
-            String storage = getCellString(fileRow.getCell(indStorage).toString());
-            String rack = getCellString(fileRow.getCell(indRack).toString());
-            String box = getCellString(fileRow.getCell(indBox).toString());
-            String row = getCellString(fileRow.getCell(indRow).toString());
-            String column = getCellString(fileRow.getCell(indColumn).toString());
-            String code = fileRow.getCell(indCode).toString();
-            String weight = (indWeight != -1) ? fileRow.getCell(indWeight).toString() : "";
-            boolean packed = !weight.equals("");
-            Sample sample = new Sample(code, weight, storage, rack, box, row, column);
-            sample.setPacked(packed);
-            samples.addElement(sample);
-        }
+    /** Get reader for samples list {@param file} according to identifiers and import mode */
+    public ListReader createReader(@NotNull File file) {
+        return ListReader.create(file, identifiers, streamingImport);
+    }
 
+    /** Load samples list from .XLS, .XLSX, .CSV or .TSV file chosen by user */
+    public void importList() {
+        File file = chooseListFile();
+        if (file != null) importList(file);
+    }
+
+    /** Load samples list from {@param file}. Previous list is replaced only if the file is read successfully.
+     * Returns TRUE if the list is loaded */
+    public boolean importList(@NotNull File file) {
+        ArrayList<Sample> list = new ArrayList<>();
+        ListReader reader = createReader(file);
         try {
-            workbook.close();
+            reader.read(file, list::add);
         } catch (IOException e) {
-            log.log(Level.WARNING, "Ошибка импорта: невозможно закрыть файл. ");
+            log.log(Level.WARNING, "Ошибка импорта: " + e.getMessage());
+            return false;
         }
-        convertToMap();
-        fireEvent(this, EVENT_SAMPLE_ADDED, samples.size() - 1);
+        // replace the list by one change, so readers never see it empty
+        write(() -> {
+            clear();
+            appendSamples(list);
+            if (reader instanceof SnapshotListReader) restoreOptions(((SnapshotListReader) reader).getSnapshot());
+        });
         log.info("Список успешно загружен. ");
+        return true;
     }
 
-    /** Save samples list to .XLS file */
-    public void saveListToFile() {
-        if (samples.size() == 0) return;
-
-        File file = new File("list_autosave.xls");
-        Workbook workbook;
-        try {
-            workbook = WorkbookFactory.create(false);
-        } catch (IOException e) {
-            log.log(Level.WARNING, "Ошибка: не удалось создать файл автосохранения. ");
-            return;
-        }
-        workbook.createSheet("shipment list " + number);
-
-        // style for headers
-        CellStyle boldCellStyle = workbook.createCellStyle();
-        org.apache.poi.ss.usermodel.Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        boldCellStyle.setFont(headerFont);
-        boldCellStyle.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
-        boldCellStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        boldCellStyle.setBorderRight(BorderStyle.THIN);
-        boldCellStyle.setBorderLeft(BorderStyle.THIN);
-        boldCellStyle.setBorderTop(BorderStyle.THIN);
-        boldCellStyle.setBorderBottom(BorderStyle.THIN);
-        boldCellStyle.setAlignment(HorizontalAlignment.CENTER);
-        boldCellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        Row dataRow = workbook.getSheetAt(0).createRow(0);
-
-        // set sheet width
-        int widRate = 4;
-        // generating headers
-        for (int column = 0; column < 7; column++) {
-            workbook.getSheetAt(0).setColumnWidth(column, widRate * 256);
-
-            Cell cell = dataRow.createCell(column, CellType.STRING);
-            switch (column) {
-                case 0: {
-                    cell.setCellValue(identifiers.get(SAMPLE_STORAGE));
-                    break;
-                }
-                case 1: {
-                    cell.setCellValue(identifiers.get(SAMPLE_RACK));
-                    break;
-                }
-                case 2: {
-                    cell.setCellValue(identifiers.get(SAMPLE_BOX));
-                    break;
-                }
-                case 3: {
-                    cell.setCellValue(identifiers.get(SAMPLE_ROW));
-                    break;
-                }
-                case 4: {
-                    cell.setCellValue(identifiers.get(SAMPLE_COLUMN));
-                    break;
-                }
-                case 5: {
-                    cell.setCellValue(identifiers.get(SAMPLE_CODE));
-                    break;
-                }
-                case 6: {
-                    cell.setCellValue(identifiers.get(SAMPLE_WEIGHT));
-                    break;
-                }
-            } // end switch
-            cell.setCellStyle(boldCellStyle);
-        }
-        workbook.getSheetAt(0).setColumnWidth(5,  cellWidth * 256);
-
-        // generating data
-        for (int i = 0; i < samples.size(); i++) {
-            dataRow = workbook.getSheetAt(0).createRow(i + 1);
-            for (int column = 0; column < 7; column++) {
-                Cell cell = dataRow.createCell(column, CellType.STRING);
-                switch (column) {
-                    case 0: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_STORAGE));
-                        break;
-                    }
-                    case 1: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_RACK));
-                        break;
-                    }
-                    case 2: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_BOX));
-                        break;
-                    }
-                    case 3: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_ROW));
-                        break;
-                    }
-                    case 4: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_COLUMN));
-                        break;
-                    }
-                    case 5: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_CODE));
-                        break;
-                    }
-                    case 6: {
-                        cell.setCellValue(samples.get(i).get(SAMPLE_WEIGHT));
-                        break;
-                    }
-//                cell.setCellStyle(cellStyle);
-                } // end switch
-            }
+    /** Take point-in-time copy of the shipment that can be read on any thread.
+     * The copy is made by the writer thread between changes */
+    public ShipmentSnapshot snapshot() {
+        if (!isWriter()) return read(this::snapshot);
+        Sample[] copies;
+        copies = new Sample[samples.size()];
+        for (int index = 0; index < copies.length; index++) {
+            Sample sample = samples.get(index);
+            copies[index] = (sample == null) ? null : sample.copy();
         }
+        return new ShipmentSnapshot(number, identifiers, copies, boxOptions, exportHeaderFont, exportFont, cellWidth);
+    }
 
-        // writing excel file
-        try {
-            FileOutputStream outStream = new FileOutputStream(file);
-            workbook.write(outStream);
-            outStream.close();
-            workbook.close();
-        } catch (IOException e) {
-            log.log(Level.WARNING, "Ошибка: не удалось записать файл автосохранения! ");
-        }
+    /** Save the whole shipment to AUTOSAVE_FILE in background; it can be loaded back as samples list.
+     * The journal is compacted by the same snapshot afterwards, so its replay starts from the last autosave.
+     * Returns result of writing: true if the file is written. The file is replaced atomically */
+    public Future<Boolean> autosave() {
+        // the snapshot and the checkpoint of the journal are taken at one moment
+        if (!isWriter()) return read(this::autosave);
+        if (samples.size() == 0) return CompletableFuture.completedFuture(false);
+
+        ShipmentSnapshot snapshot = snapshot();
+        ShipmentJournal compacted = journal;
+        ShipmentJournal.Checkpoint checkpoint = (journal == null) ? null : journal.checkpoint();
+        return exporter.submit(() -> {
+            boolean written;
+            try {
+                SnapshotFile.write(snapshot, 0, new File(AUTOSAVE_FILE));
+                written = true;
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.WARNING, "Ошибка автосохранения: " + e.getMessage());
+                written = false;
+            }
+            if (checkpoint != null) compacted.compact(snapshot, checkpoint);
+            return written;
+        });
     }
 
     /** Save shipment map to .XLS file */
@@ -496,129 +827,99 @@ public class Shipment extends AbstractShipment {
                 file = new File(file.getAbsolutePath() + ".xls");
         } else return;
 
-        Workbook workbook;
-        try {
-            // set true if .XLSX
-            workbook = WorkbookFactory.create(file.getName().endsWith(".xlsx"));
-        } catch (IOException e) {
-            log.log(Level.WARNING, "Ошибка экспорта: не удалось создать файл. ");
-            return;
-        }
-        workbook.createSheet("Shipment " + number);
-        // set sheet width
-        for (int column = 0; column < boxOptions.getColumnsCount(); column++) {
-            workbook.getSheetAt(0).setColumnWidth(column + 1, cellWidth * 256);
-        }
-
-        // style for cells
-        CellStyle cellStyle = workbook.createCellStyle();
-        org.apache.poi.ss.usermodel.Font cellFont = workbook.createFont();
-        cellFont.setFontName(exportFont.getName());
-        cellFont.setFontHeightInPoints((short) exportFont.getSize());
-        cellFont.setBold((Font.BOLD & exportFont.getStyle()) == Font.BOLD);
-        cellFont.setItalic((Font.ITALIC & exportFont.getStyle()) == Font.ITALIC);
-        cellStyle.setFont(cellFont);
-        cellStyle.setBorderRight(BorderStyle.THIN);
-        cellStyle.setBorderLeft(BorderStyle.THIN);
-        cellStyle.setBorderTop(BorderStyle.THIN);
-        cellStyle.setBorderBottom(BorderStyle.THIN);
-        cellStyle.setAlignment(HorizontalAlignment.CENTER);
-        cellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        cellStyle.setWrapText(true);
-
-        // style for headers
-        CellStyle boldCellStyle = workbook.createCellStyle();
-        org.apache.poi.ss.usermodel.Font headerFont = workbook.createFont();
-        headerFont.setFontName(exportHeaderFont.getName());
-        headerFont.setFontHeightInPoints((short) exportHeaderFont.getSize());
-        headerFont.setBold((Font.BOLD & exportHeaderFont.getStyle()) == Font.BOLD);
-        headerFont.setItalic((Font.ITALIC & exportHeaderFont.getStyle()) == Font.ITALIC);
-        boldCellStyle.setFont(headerFont);
-        boldCellStyle.setBorderRight(BorderStyle.THIN);
-        boldCellStyle.setBorderLeft(BorderStyle.THIN);
-        boldCellStyle.setBorderTop(BorderStyle.THIN);
-        boldCellStyle.setBorderBottom(BorderStyle.THIN);
-        boldCellStyle.setAlignment(HorizontalAlignment.CENTER);
-        boldCellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // generating excel file
-        int blockCount = this.getBoxesCount();
-        int rowsInBlock = 2 + boxOptions.getRowsCount() + boxOptions.getSeparator();
-
-        for (int block = 0; block < blockCount; block++) {
-            // create first row in block - with box number
-            Row dataRow = workbook.getSheetAt(0).createRow(rowsInBlock * block);
-            Cell cell = dataRow.createCell(1, CellType.STRING);
-            cell.setCellValue(number + "." + (block + 1));
-            cell.setCellStyle(boldCellStyle);
-
-            // second row in block - box header
-            dataRow = workbook.getSheetAt(0).createRow(rowsInBlock * block + 1);
-            for (int column = 1; column < boxOptions.getColumnsCount() + 1; column++) {
-                cell = dataRow.createCell(column, CellType.STRING);
-                cell.setCellValue(String.valueOf((char) ('a' + column - 1)));
-                cell.setCellStyle(boldCellStyle);
+        saveMapToFile(file);
+    }
+
+    /** Save shipment map to .XLS or .XLSX {@param file} in background.
+     * The shipment is copied at the moment of call, so it can be changed while the file is written.
+     * Completion or error is logged; returns result of writing: true if the file is written */
+    public Future<Boolean> saveMapToFile(@NotNull File file) {
+        ShipmentSnapshot snapshot = snapshot();
+        return exporter.submit(() -> {
+            try {
+                ShipmentExporter.writeMap(snapshot, file);
+            } catch (IOException | RuntimeException e) {
+                log.log(Level.WARNING, "Ошибка экспорта: " + e.getMessage());
+                return false;
             }
+            log.info("Экспорт успешно завершен. ");
+            return true;
+        });
+    }
 
-            // export the list data
-            for (int row = 0; row < boxOptions.getRowsCount(); row++) {
-                int fileRow = 2 + rowsInBlock * block + row;
-                dataRow = workbook.getSheetAt(0).createRow(fileRow);
-                // make the first cell as header
-                Cell firstCell = dataRow.createCell(0, CellType.STRING);
-                firstCell.setCellValue(String.valueOf(1 + row));
-                firstCell.setCellStyle(boldCellStyle);
-                // export data
-                for (int column = 1; column < boxOptions.getColumnsCount() + 1; column++) {
-                    cell = dataRow.createCell(column, CellType.STRING);
-                    String value;
-                    int index = (column - 1) + boxOptions.getColumnsCount() * row + boxOptions.getCapacity() * block;
-                    try {
-                        value = samples.get(index).get(SAMPLE_CODE | SAMPLE_WEIGHT);
-                    } catch (NullPointerException | ArrayIndexOutOfBoundsException e) {
-                        value = "";
-                    }
-                    cell.setCellValue(value);
-                    cell.setCellStyle(cellStyle);
-                } // for column
-            } // for row
-        } // for block
-
-        // writing excel file
+    /** Wait for files being written in background and close the journal; call before exit.
+     * No files can be saved after that */
+    public void close() {
+        // the journal is closed between changes
+        write(() -> {
+            if (journal != null) {
+                journal.compact(snapshot());
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Ошибка журнала: журнал не закрыт. ");
+                }
+                journal = null;
+            }
+        });
+        exporter.shutdown();
         try {
-            FileOutputStream outStream = new FileOutputStream(file);
-            workbook.write(outStream);
-            outStream.close();
-            workbook.close();
-        } catch (IOException e) {
-            log.log(Level.WARNING, "Ошибка экспорта: невозможно записать файл! ");
+            if (!exporter.awaitTermination(EXPORT_TIMEOUT, TimeUnit.SECONDS))
+                log.log(Level.WARNING, "Ошибка: запись файлов не завершена. ");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        log.info("Экспорт успешно завершен. ");
+    // sample to be kept in the list: its fields are moved to the store, the object becomes a view.
+    // Views of the store are copied, so a slot always belongs to one list element
+    private Sample attach(Sample sample) {
+        if (sample.isView()) sample = sample.copy();
+        sample.attach(store);
+        if (codes.add(sample) && (repeats++ == 0)) repeatedCode = sample.get(SAMPLE_CODE);
+        locations.add(sample.getSlot());
+        return sample;
     }
 
-    /** Convert current list to table according to box options. */
-    protected void convertToMap() {
-        map.setRowCount(0);
-        map.setRowCount(this.translate(samples.size() - 1).y + 1);
-        map.setColumnCount(boxOptions.getColumnsCount());
-        for (int index = 0; index < samples.size(); index++) {
-            Point pos = this.translate(index);
-            map.setValueAt(samples.get(index), pos.y, pos.x);
-//            if (samples.get(index).getPacked())
-//                map.setValueAt(samples.get(index).get(SAMPLE_CODE | SAMPLE_WEIGHT), pos.y, pos.x);
-//            else
-//                map.setValueAt(samples.get(index).get(SAMPLE_CODE), pos.y, pos.x);
-        }
+    // indexes of the list are invalid from {@param index}: samples there were inserted or removed
+    private void invalidate(int index) {
+        cases.invalidate(index);
+        packed.invalidate(index);
+        codes.invalidate(index);
+        boxes.invalidate(index);
     }
 
-    // Refactors float string value to int string value
-    protected String getCellString(@NotNull String source) {
-        int i = source.indexOf(".");
-        if (i > 0) {
-            return source.substring(0, source.indexOf("."));
-        }
-        return source;
+    // sample removed from the list becomes independent
+    private void detach(Sample sample) {
+        codes.remove(sample);
+        locations.remove(sample.getSlot());
+        sample.detach();
+    }
+
+    // log repeated codes found by the change
+    private void reportRepeats() {
+        if (repeats == 0) return;
+        log.log(Level.WARNING, "Повторяющиеся коды образцов: " + repeats + " (" + repeatedCode + "). ");
+        repeats = 0;
+    }
+
+    // the change is already in the list: if the journal is full, the snapshot with this change is saved instead.
+    // Records of a bulk change are written until the first failed one, and the snapshot is saved after the whole
+    // change is applied, so replay never applies a part of the change twice or loses it
+    private void journalWritten(boolean written) {
+        if (!written) journal.compact(snapshot());
+    }
+
+    /** Refresh map cells from sample {@param from} to the end of list; cells before it are not touched */
+    protected void updateMap(int from) {
+        updateMap(from, samples.size());
+    }
+
+    /** Refresh map cells of samples from {@param from} (inclusive) to {@param to} (exclusive); rows are added
+     * or removed to fit the list. The changed rows are reported by one event
+     * (and one more if the count of rows is changed) */
+    protected void updateMap(int from, int to) {
+        map.update(from, to);
     }
 
 }
\ No newline at end of file
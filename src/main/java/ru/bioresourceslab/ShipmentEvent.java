@@ -1,6 +1,8 @@
 package ru.bioresourceslab;
 
+import java.util.Collections;
 import java.util.EventObject;
+import java.util.List;
 
 public class ShipmentEvent extends EventObject {
 
@@ -13,11 +15,24 @@ public class ShipmentEvent extends EventObject {
 //    private final int typeOfEvent;
     /** Index of modified sample. It is '-1' if no samples left */
     private final int target;
+    /** Samples from this index may take other places after the event */
+    private final int first;
+    /** Samples put to the list or changed by the event */
+    private final List<Sample> samples;
+    /** Samples taken from the list (removed or replaced) by the event */
+    private final List<Sample> removed;
 
     public ShipmentEvent(Object source, int target) {
+        this(source, target, target, Collections.emptyList(), Collections.emptyList());
+    }
+
+    public ShipmentEvent(Object source, int target, int first, List<Sample> samples, List<Sample> removed) {
         super(source);
 //        this.typeOfEvent = typeOfEvent;
         this.target = target;
+        this.first = first;
+        this.samples = samples;
+        this.removed = removed;
     }
 
 //    public int getType() {
@@ -27,4 +42,19 @@ public class ShipmentEvent extends EventObject {
     public int getTarget() {
         return target;
     }
+
+    /** Get index of the first sample which may be shifted by the event */
+    public int getFirst() {
+        return first;
+    }
+
+    /** Get samples put to the list or changed by the event; empty if the event doesn't tell them */
+    public List<Sample> getSamples() {
+        return samples;
+    }
+
+    /** Get samples removed from the list or replaced by the event; they are detached from the shipment */
+    public List<Sample> getRemoved() {
+        return removed;
+    }
 }
@@ -0,0 +1,134 @@
+package ru.bioresourceslab;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.Font;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Запись снимка отправки в файлы Excel.
+ * Works only with ShipmentSnapshot, so it is safe to call from a background thread while the shipment is changed.
+ * Errors are thrown as IOException with a message for the user. */
+
+public final class ShipmentExporter {
+    /** Number of rows kept in memory while .XLSX map is exported */
+    public static final int EXPORT_ROW_WINDOW = 100;
+
+    private ShipmentExporter() {
+    }
+
+    /** Write map of {@param snapshot} to .XLS or .XLSX {@param file}.
+     * .XLSX is written by streaming workbook: only last EXPORT_ROW_WINDOW rows are kept in memory */
+    public static void writeMap(@NotNull ShipmentSnapshot snapshot, @NotNull File file) throws IOException {
+        Workbook workbook;
+        try {
+            // streaming workbook if .XLSX
+            workbook = file.getName().endsWith(".xlsx") ? new SXSSFWorkbook(EXPORT_ROW_WINDOW) : WorkbookFactory.create(false);
+        } catch (IOException e) {
+            throw new IOException("не удалось создать файл. ", e);
+        }
+        BoxOptions boxOptions = snapshot.getBoxOptions();
+        String number = snapshot.getNumber();
+        Sheet sheet = workbook.createSheet("Shipment " + number);
+        // set sheet width
+        for (int column = 0; column < boxOptions.getColumnsCount(); column++) {
+            sheet.setColumnWidth(column + 1, snapshot.getCellWidth() * 256);
+        }
+
+        // style for cells
+        CellStyle cellStyle = workbook.createCellStyle();
+        cellStyle.setFont(createFont(workbook, snapshot.getExportFont()));
+        cellStyle.setBorderRight(BorderStyle.THIN);
+        cellStyle.setBorderLeft(BorderStyle.THIN);
+        cellStyle.setBorderTop(BorderStyle.THIN);
+        cellStyle.setBorderBottom(BorderStyle.THIN);
+        cellStyle.setAlignment(HorizontalAlignment.CENTER);
+        cellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+        cellStyle.setWrapText(true);
+
+        // style for headers
+        CellStyle boldCellStyle = workbook.createCellStyle();
+        boldCellStyle.setFont(createFont(workbook, snapshot.getExportHeaderFont()));
+        boldCellStyle.setBorderRight(BorderStyle.THIN);
+        boldCellStyle.setBorderLeft(BorderStyle.THIN);
+        boldCellStyle.setBorderTop(BorderStyle.THIN);
+        boldCellStyle.setBorderBottom(BorderStyle.THIN);
+        boldCellStyle.setAlignment(HorizontalAlignment.CENTER);
+        boldCellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+
+        // generating excel file; rows are created strictly in ascending order (required by streaming workbook)
+        SampleFormat format = SampleFormat.of(SAMPLE_CODE | SAMPLE_WEIGHT);
+        StringBuilder value = new StringBuilder(32);
+        int blockCount = snapshot.getBoxesCount();
+        int rowsInBlock = 2 + boxOptions.getRowsCount() + boxOptions.getSeparator();
+
+        for (int block = 0; block < blockCount; block++) {
+            // create first row in block - with box number
+            Row dataRow = sheet.createRow(rowsInBlock * block);
+            Cell cell = dataRow.createCell(1, CellType.STRING);
+            cell.setCellValue(number + "." + (block + 1));
+            cell.setCellStyle(boldCellStyle);
+
+            // second row in block - box header
+            dataRow = sheet.createRow(rowsInBlock * block + 1);
+            for (int column = 1; column < boxOptions.getColumnsCount() + 1; column++) {
+                cell = dataRow.createCell(column, CellType.STRING);
+                cell.setCellValue(String.valueOf((char) ('a' + column - 1)));
+                cell.setCellStyle(boldCellStyle);
+            }
+
+            // export the list data
+            for (int row = 0; row < boxOptions.getRowsCount(); row++) {
+                int fileRow = 2 + rowsInBlock * block + row;
+                dataRow = sheet.createRow(fileRow);
+                // make the first cell as header
+                Cell firstCell = dataRow.createCell(0, CellType.STRING);
+                firstCell.setCellValue(String.valueOf(1 + row));
+                firstCell.setCellStyle(boldCellStyle);
+                // export data
+                for (int column = 1; column < boxOptions.getColumnsCount() + 1; column++) {
+                    cell = dataRow.createCell(column, CellType.STRING);
+                    int index = (column - 1) + boxOptions.getColumnsCount() * row + boxOptions.getCapacity() * block;
+                    value.setLength(0);
+                    if ((index < snapshot.getSamplesCount()) && (snapshot.getSample(index) != null))
+                        format.appendTo(snapshot.getSample(index), value);
+                    cell.setCellValue(value.toString());
+                    cell.setCellStyle(cellStyle);
+                } // for column
+            } // for row
+        } // for block
+
+        write(workbook, file);
+    }
+
+    // excel font like {@param font}
+    private static org.apache.poi.ss.usermodel.Font createFont(Workbook workbook, Font font) {
+        org.apache.poi.ss.usermodel.Font result = workbook.createFont();
+        result.setFontName(font.getName());
+        result.setFontHeightInPoints((short) font.getSize());
+        result.setBold((Font.BOLD & font.getStyle()) == Font.BOLD);
+        result.setItalic((Font.ITALIC & font.getStyle()) == Font.ITALIC);
+        return result;
+    }
+
+    // write and close workbook
+    private static void write(Workbook workbook, File file) throws IOException {
+        try (FileOutputStream outStream = new FileOutputStream(file)) {
+            workbook.write(outStream);
+        } catch (IOException e) {
+            throw new IOException("невозможно записать файл! ", e);
+        } finally {
+            // remove temporary files of streaming workbook
+            if (workbook instanceof SXSSFWorkbook) ((SXSSFWorkbook) workbook).dispose();
+            try {
+                workbook.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Журнал изменений отправки.
+ * Every change of the shipment is appended as a small record to a memory-mapped file: it costs a few microseconds
+ * and survives a crash of the application. Records are forced to disk by a background thread every SYNC_INTERVAL ms,
+ * so power loss can cost only the last interval.
+ * When the journal is full, the whole shipment is saved to the snapshot file (see SnapshotFile) and the journal is started again
+ * with the next generation. Records are checked by CRC seeded with the generation: torn records and records
+ * of previous generations stop the replay.
+ * The journal is also compacted in background on the autosave cadence: a checkpoint record marks the moment
+ * the snapshot is taken, the snapshot file is written without blocking records, and then the records made
+ * after the checkpoint are moved to the next generation. If the application stops between these steps,
+ * replay applies the records after the last checkpoint to the new snapshot.
+ * how to use: open(...), replay(...) into the empty shipment, then Shipment.setJournal(...); Shipment closes it on exit */
+
+public class ShipmentJournal implements Closeable {
+    /** Size of the journal file */
+    public static final int JOURNAL_SIZE = 4 << 20;
+    /** Interval of forcing records to disk, ms */
+    public static final int SYNC_INTERVAL = 100;
+
+    // record types; '0' ends the journal
+    private static final byte END = 0;
+    private static final byte CLEAR = 1;
+    private static final byte INSERT = 2;
+    private static final byte REMOVE = 3;
+    private static final byte SWAP = 4;
+    private static final byte WEIGHT = 5;
+    private static final byte PACKED = 6;
+    private static final byte SET = 7;
+    private static final byte NUMBER = 8;
+    private static final byte BOX_OPTIONS = 9;
+    private static final byte CHECKPOINT = 10;
+
+    private static final int JOURNAL_MAGIC = 0x53504A4E;    // "SPJN"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;              // magic, version, generation
+    private static final int RECORD_OVERHEAD = 9;           // length, type, crc
+
+    private final Logger log = Logger.getLogger("SPA Logger");
+    private final File snapshotFile;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ScheduledExecutorService syncer;
+    private final CRC32 crc = new CRC32();
+    private long generation;
+    private int recordStart;               // position of the record being written
+    private boolean dirty = false;         // records are not forced to disk yet
+    private boolean closed = false;
+    private boolean compacting = false;    // snapshot file of a checkpoint is being written
+    private final Object compaction = new Object();     // held while the snapshot file is written
+
+    /** Moment of the journal a snapshot is taken at (see checkpoint()) */
+    public static final class Checkpoint {
+        private final long generation;
+        private final int position;         // position of the first record after the checkpoint
+
+        private Checkpoint(long generation, int position) {
+            this.generation = generation;
+            this.position = position;
+        }
+    }
+
+    private ShipmentJournal(File journalFile, File snapshotFile) throws IOException {
+        this.snapshotFile = snapshotFile;
+        channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SPA journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL, SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** Open journal {@param journalFile} with snapshot {@param snapshotFile}; files are created if absent */
+    public static ShipmentJournal open(@NotNull File journalFile, @NotNull File snapshotFile) throws IOException {
+        return new ShipmentJournal(journalFile, snapshotFile);
+    }
+
+    /** Restore shipment from the snapshot and journal records into empty {@param shipment}.
+     * The journal is not attached to the shipment yet, so restoring is not journaled.
+     * Box options saved with the snapshot and journaled after it are restored as well. Returns number of restored samples */
+    public synchronized int replay(@NotNull Shipment shipment) {
+        ArrayList<Sample> samples = new ArrayList<>();
+        String[] number = {null};
+        BoxOptions[] boxOptions = {null};
+        long snapshotGeneration = readSnapshot(samples, number, boxOptions);
+
+        buffer.position(0);
+        boolean valid = (buffer.getInt() == JOURNAL_MAGIC) && (buffer.getInt() == VERSION);
+        long journalGeneration = buffer.getLong();
+        if (valid && (journalGeneration >= snapshotGeneration)) {
+            // records of older generation are already in the snapshot
+            generation = journalGeneration;
+            buffer.position(HEADER_SIZE);
+            while (applyRecord(samples, number, boxOptions)) {
+                // next record
+            }
+            if (buffer.position() > HEADER_SIZE) log.fine("Журнал: восстановлено " + (buffer.position() - HEADER_SIZE) + " байт. ");
+        } else if (valid && (journalGeneration + 1 == snapshotGeneration)) {
+            // stopped during compaction: the snapshot is taken at the last checkpoint of the journal
+            generation = journalGeneration;
+            int from = lastCheckpoint();
+            if (from < 0) {
+                reset(snapshotGeneration);
+            } else {
+                buffer.position(from);
+                while (applyRecord(samples, number, boxOptions)) {
+                    // next record
+                }
+                restart(snapshotGeneration, from);
+                log.fine("Журнал: восстановлено после снимка " + (buffer.position() - HEADER_SIZE) + " байт. ");
+            }
+        } else {
+            reset(snapshotGeneration);
+        }
+
+        if (boxOptions[0] != null) {
+            shipment.setBoxOptions(boxOptions[0].getRowsCount(), boxOptions[0].getColumnsCount(), boxOptions[0].getSeparator());
+        }
+        if (samples.isEmpty() && (number[0] == null)) return 0;
+        shipment.clear();
+        shipment.appendSamples(samples);
+        if (number[0] != null) shipment.setNumber(number[0]);
+        return shipment.getSamplesCount();
+    }
+
+    // type of valid record at {@param start}; END if there is no valid record there
+    private byte recordType(int start) {
+        if (start + RECORD_OVERHEAD > JOURNAL_SIZE) return END;
+        int length = buffer.getInt(start);
+        byte type = buffer.get(start + 4);
+        if ((type == END) || (length < 0) || (start + RECORD_OVERHEAD + length > JOURNAL_SIZE)) return END;
+        // torn record or record of previous generation
+        if (buffer.getInt(start + 5 + length) != checksum(start, length)) return END;
+        return type;
+    }
+
+    // position after the last checkpoint record; '-1' if there is none
+    private int lastCheckpoint() {
+        int result = -1;
+        int start = HEADER_SIZE;
+        for (byte type = recordType(start); type != END; type = recordType(start)) {
+            start += RECORD_OVERHEAD + buffer.getInt(start);
+            if (type == CHECKPOINT) result = start;
+        }
+        return result;
+    }
+
+    // read the next record at buffer position; returns false at the end of journal
+    private boolean applyRecord(ArrayList<Sample> samples, String[] number, BoxOptions[] boxOptions) {
+        int start = buffer.position();
+        byte type = recordType(start);
+        if (type == END) return false;
+        int length = buffer.getInt();
+        buffer.get();
+
+        try {
+            switch (type) {
+                case CLEAR: {
+                    samples.clear();
+                    number[0] = "0";
+                    break;
+                }
+                case INSERT: {
+                    int index = buffer.getInt();
+                    samples.add(Math.min(index, samples.size()), getSample());
+                    break;
+                }
+                case REMOVE: {
+                    samples.remove(buffer.getInt());
+                    break;
+                }
+                case SWAP: {
+                    Collections.swap(samples, buffer.getInt(), buffer.getInt());
+                    break;
+                }
+                case WEIGHT: {
+                    samples.get(buffer.getInt()).setWeight(getString());
+                    break;
+                }
+                case PACKED: {
+                    samples.get(buffer.getInt()).setPacked(buffer.get() != 0);
+                    break;
+                }
+                case SET: {
+                    int index = buffer.getInt();
+                    samples.set(index, getSample());
+                    break;
+                }
+                case NUMBER: {
+                    number[0] = getString();
+                    break;
+                }
+                case BOX_OPTIONS: {
+                    boxOptions[0] = new BoxOptions(buffer.getInt(), buffer.getInt(), buffer.getInt());
+                    break;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            log.log(Level.WARNING, "Журнал: пропущена неверная запись. ");
+        }
+        buffer.position(start + RECORD_OVERHEAD + length);
+        return true;
+    }
+
+    /** Journal clearing of the list; returns false if the journal is full */
+    public synchronized boolean clear() {
+        return begin(0) && end(CLEAR);
+    }
+
+    /** Journal insertion of {@param sample} at {@param index}; returns false if the journal is full */
+    public synchronized boolean insert(int index, @NotNull Sample sample) {
+        return begin(4 + sampleSize(sample)) && putInt(index) && putSample(sample) && end(INSERT);
+    }
+
+    /** Journal removal of sample at {@param index}; returns false if the journal is full */
+    public synchronized boolean remove(int index) {
+        return begin(4) && putInt(index) && end(REMOVE);
+    }
+
+    /** Journal swap of samples at {@param index} and {@param destination}; returns false if the journal is full */
+    public synchronized boolean swap(int index, int destination) {
+        return begin(8) && putInt(index) && putInt(destination) && end(SWAP);
+    }
+
+    /** Journal new {@param weight} of sample at {@param index}; returns false if the journal is full */
+    public synchronized boolean weight(int index, String weight) {
+        return begin(4 + stringSize(weight)) && putInt(index) && putString(weight) && end(WEIGHT);
+    }
+
+    /** Journal packed status of sample at {@param index}; returns false if the journal is full */
+    public synchronized boolean packed(int index, boolean packed) {
+        return begin(5) && putInt(index) && putByte(packed ? 1 : 0) && end(PACKED);
+    }
+
+    /** Journal replacement of sample at {@param index}; returns false if the journal is full */
+    public synchronized boolean set(int index, @NotNull Sample sample) {
+        return begin(4 + sampleSize(sample)) && putInt(index) && putSample(sample) && end(SET);
+    }
+
+    /** Journal new shipment {@param number}; returns false if the journal is full */
+    public synchronized boolean number(String number) {
+        return begin(stringSize(number)) && putString(number) && end(NUMBER);
+    }
+
+    /** Journal new box options: {@param rows}, {@param columns}, {@param separator}; returns false if the journal is full */
+    public synchronized boolean boxOptions(int rows, int columns, int separator) {
+        return begin(12) && putInt(rows) && putInt(columns) && putInt(separator) && end(BOX_OPTIONS);
+    }
+
+    /** Mark the moment a snapshot of the shipment is taken for {@code compact(snapshot, checkpoint)}; call on the
+     * writer thread together with the snapshot. Returns null if the journal is full or is being compacted */
+    public synchronized Checkpoint checkpoint() {
+        if (compacting || !(begin(0) && end(CHECKPOINT))) return null;
+        return new Checkpoint(generation, buffer.position());
+    }
+
+    /** Save {@param snapshot} of the whole shipment and start the journal again.
+     * The snapshot is replaced atomically, so a crash at any moment leaves either the old or the new state */
+    public void compact(@NotNull ShipmentSnapshot snapshot) {
+        synchronized (compaction) {
+            synchronized (this) {
+                if (closed) return;
+                long next = generation + 1;
+                if (!writeSnapshot(snapshot, next)) return;
+                reset(next);
+            }
+        }
+    }
+
+    /** Save {@param snapshot} taken at {@param checkpoint} and move the records made after it to the next generation.
+     * It may be called on any thread: records are written meanwhile, only moving them blocks the writer.
+     * Nothing is done if the journal was compacted after the checkpoint */
+    public void compact(@NotNull ShipmentSnapshot snapshot, @NotNull Checkpoint checkpoint) {
+        synchronized (compaction) {
+            synchronized (this) {
+                if (closed || (generation != checkpoint.generation)) return;
+                compacting = true;
+            }
+            // the generation is not changed meanwhile: other compactions wait for this one
+            boolean written = writeSnapshot(snapshot, checkpoint.generation + 1);
+            synchronized (this) {
+                compacting = false;
+                if (written && !closed) restart(checkpoint.generation + 1, checkpoint.position);
+            }
+        }
+    }
+
+    /** Force journal records to disk. Records are written meanwhile: the buffer is forced without the lock */
+    public void sync() {
+        synchronized (this) {
+            if (!dirty || closed) return;
+            dirty = false;
+        }
+        buffer.force();
+    }
+
+    /** Force records to disk and close the journal */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        sync();
+        closed = true;
+        syncer.shutdown();
+        channel.close();
+    }
+
+    private boolean writeSnapshot(ShipmentSnapshot snapshot, long next) {
+        try {
+            SnapshotFile.write(snapshot, next, snapshotFile);
+            return true;
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Ошибка журнала: не удалось сохранить снимок отправки. ");
+            return false;
+        }
+    }
+
+    // start the journal with {@param next} generation keeping records from {@param from} to the current position:
+    // they are written again with CRC of the new generation; checkpoints are dropped
+    private void restart(long next, int from) {
+        byte[] records = new byte[buffer.position() - from];
+        ByteBuffer tail = buffer.duplicate();
+        tail.position(from);
+        tail.get(records);
+        reset(next);
+        ByteBuffer old = ByteBuffer.wrap(records);
+        while (old.hasRemaining()) {
+            int length = old.getInt();
+            byte type = old.get();
+            if ((type != CHECKPOINT) && begin(length)) {
+                buffer.put(records, old.position(), length);
+                end(type);
+            }
+            old.position(old.position() + length + 4);
+        }
+        // the moved records are in the page cache only, as they were before
+        dirty = true;
+    }
+
+    // start the journal with {@param next} generation; old records become invalid by their CRC
+    private void reset(long next) {
+        generation = next;
+        buffer.position(0);
+        buffer.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(generation);
+        buffer.putInt(0).put(END);
+        buffer.position(HEADER_SIZE);
+        buffer.force();
+        dirty = false;
+    }
+
+    // WRITING RECORDS
+    // reserve room for record with payload of {@param length} bytes; the record stays invalid until end(...)
+    private boolean begin(int length) {
+        if (closed) return false;
+        recordStart = buffer.position();
+        // keep room for the end mark
+        if (recordStart + RECORD_OVERHEAD + length + 5 > JOURNAL_SIZE) return false;
+        buffer.putInt(length).put(END);
+        return true;
+    }
+
+    // write type and CRC: the record becomes valid only now
+    private boolean end(byte type) {
+        int length = buffer.position() - recordStart - 5;
+        buffer.put(recordStart + 4, type);
+        buffer.putInt(checksum(recordStart, length));
+        // end mark after the record
+        buffer.putInt(buffer.position(), 0);
+        buffer.put(buffer.position() + 4, END);
+        dirty = true;
+        return true;
+    }
+
+    private boolean putInt(int value) {
+        buffer.putInt(value);
+        return true;
+    }
+
+    private boolean putByte(int value) {
+        buffer.put((byte) value);
+        return true;
+    }
+
+    private boolean putString(String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+        return true;
+    }
+
+    private boolean putSample(Sample sample) {
+        for (int field : FIELDS) {
+            putString(sample.get(field));
+        }
+        return putByte(sample.getPacked() ? 1 : 0);
+    }
+
+    // READING RECORDS
+    private String getString() {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Sample getSample() {
+        Sample sample = new Sample(getString(), getString(), getString(), getString(), getString(), getString(), getString());
+        sample.setPacked(buffer.get() != 0);
+        return sample;
+    }
+
+    // CRC of type and payload of record at {@param start}, seeded with generation
+    private int checksum(int start, int length) {
+        crc.reset();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (generation >>> shift));
+        }
+        ByteBuffer record = buffer.duplicate();
+        record.position(start + 4).limit(start + 5 + length);
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    // fields of sample in order of its constructor
+    private static final int[] FIELDS = {SAMPLE_CODE, SAMPLE_WEIGHT, SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN};
+
+    private static int stringSize(String value) {
+        return 4 + (value == null ? "" : value).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static int sampleSize(Sample sample) {
+        int size = 1;
+        for (int field : FIELDS) {
+            size += stringSize(sample.get(field));
+        }
+        return size;
+    }
+
+    // read snapshot into {@param samples}, {@param number} and {@param boxOptions};
+    // returns its generation, '0' if there is no valid snapshot
+    private long readSnapshot(ArrayList<Sample> samples, String[] number, BoxOptions[] boxOptions) {
+        if (!snapshotFile.exists()) return 0;
+        try {
+            SnapshotFile file = SnapshotFile.read(snapshotFile);
+            ShipmentSnapshot snapshot = file.getSnapshot();
+            for (int index = 0; index < snapshot.getSamplesCount(); index++) {
+                samples.add(snapshot.getSample(index));
+            }
+            number[0] = snapshot.getNumber();
+            boxOptions[0] = snapshot.getBoxOptions();
+            return file.getGeneration();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Ошибка журнала: снимок отправки не прочитан: " + e.getMessage());
+            return 0;
+        }
+    }
+}
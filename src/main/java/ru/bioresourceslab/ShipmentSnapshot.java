@@ -0,0 +1,75 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+/** Неизменяемый снимок отправки на определенный момент времени.
+ * Samples are copied when the snapshot is taken, so it can be read on any thread while the shipment is changed.
+ * Copying costs one small object per sample: field strings are shared, not duplicated.
+ * Samples got from the snapshot must not be modified. */
+
+public final class ShipmentSnapshot {
+    private final String number;
+    private final Sample identifiers;
+    private final Sample[] samples;
+    private final int rows, columns, separator;
+    private final int cellWidth;
+    private final Font exportFont;
+    private final Font exportHeaderFont;
+
+    ShipmentSnapshot(String number, Sample identifiers, @NotNull Sample[] samples, @NotNull BoxOptions boxOptions,
+                     Font exportHeaderFont, Font exportFont, int cellWidth) {
+        this.number = number;
+        this.identifiers = (identifiers == null) ? null : identifiers.copy();
+        this.samples = samples;
+        this.rows = boxOptions.getRowsCount();
+        this.columns = boxOptions.getColumnsCount();
+        this.separator = boxOptions.getSeparator();
+        this.exportHeaderFont = exportHeaderFont;
+        this.exportFont = exportFont;
+        this.cellWidth = cellWidth;
+    }
+
+    /** Get shipment number */
+    public String getNumber() {
+        return number;
+    }
+
+    /** Get in-file names of columns; null if they are unknown (snapshot is read from file) */
+    public Sample getIdentifiers() {
+        return identifiers;
+    }
+
+    /** Get number of samples */
+    public int getSamplesCount() {
+        return samples.length;
+    }
+
+    /** Get sample by {@param index} */
+    public Sample getSample(int index) {
+        return samples[index];
+    }
+
+    /** Get box parameters (new object on every call) */
+    public BoxOptions getBoxOptions() {
+        return new BoxOptions(rows, columns, separator);
+    }
+
+    /** Get count of boxes */
+    public int getBoxesCount() {
+        return getBoxOptions().getBoxesCount(samples.length);
+    }
+
+    public int getCellWidth() {
+        return cellWidth;
+    }
+
+    public Font getExportFont() {
+        return exportFont;
+    }
+
+    public Font getExportHeaderFont() {
+        return exportHeaderFont;
+    }
+}
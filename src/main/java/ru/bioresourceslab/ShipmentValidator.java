@@ -0,0 +1,336 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Проверка списка отправки по ходу работы: повторяющиеся коды и места хранения, случаи в разных коробках,
+ * веса вне диапазона.
+ * The validator listens to the shipment and keeps counts of codes and locations and samples of every case
+ * in hash maps, so only the samples told by an event are checked again: an event costs as many hash operations
+ * as samples it changes. Cases depend on places of samples: they are checked on request, only the ones changed
+ * since the previous request. After an insertion or removal only the cases which may get to other boxes than before
+ * are checked: the ones near the change and the ones moved by one box more or less than the others.
+ * The validator is used on the event dispatch thread, as the shipment is changed. */
+
+public class ShipmentValidator extends ShipmentListener {
+    private static final int[] LOCATION_PARTS = {SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN};
+
+    private final Shipment shipment;
+    private double rangeLower = 0;
+    private double rangeUpper = 1.5;
+
+    private final IdentityHashMap<Sample, Entry> entries = new IdentityHashMap<>();
+    private final HashMap<String, Integer> codes = new HashMap<>();             // count of samples by code
+    private final HashMap<String, Integer> locations = new HashMap<>();         // count of samples by location
+    private final HashMap<String, Set<Sample>> cases = new HashMap<>();         // samples by mask
+    private final LinkedHashSet<String> repeatedCodes = new LinkedHashSet<>();
+    private final LinkedHashSet<String> repeatedLocations = new LinkedHashSet<>();
+    private final Set<Sample> outOfRange = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final LinkedHashMap<String, Integer> splitCases = new LinkedHashMap<>();   // count of boxes by mask
+    private HashSet<String> changedCases = new HashSet<>();
+    private int shiftedFrom = Integer.MAX_VALUE;    // samples from this index may be in other boxes
+    private int size = 0;                           // count of samples after the previous event
+    private int capacity = 0;                       // capacity of box the cases were checked with
+
+    // values of sample as it was checked
+    private static final class Entry {
+        final String code;
+        final String location;      // null if location is not set
+        final String mask;          // null if sample has no mask
+
+        Entry(String code, String location, String mask) {
+            this.code = code;
+            this.location = location;
+            this.mask = mask;
+        }
+    }
+
+    /** Create validator of {@param shipment}; its current samples are checked at once */
+    public ShipmentValidator(@NotNull Shipment shipment) {
+        this.shipment = shipment;
+        for (int index = 0; index < shipment.getSamplesCount(); index++) {
+            add(shipment.getSample(index));
+        }
+        size = shipment.getSamplesCount();
+        shipment.addListener(this);
+    }
+
+    /** Set range of right weights */
+    public void setRanges(double lower, double upper) {
+        this.rangeLower = lower;
+        this.rangeUpper = upper;
+        outOfRange.clear();
+        for (Sample sample : entries.keySet()) {
+            if (isOutOfRange(sample)) outOfRange.add(sample);
+        }
+    }
+
+    @Override
+    public void dataAdded(ShipmentEvent source) {
+        update(source, true);
+    }
+
+    @Override
+    public void dataRemoved(ShipmentEvent source) {
+        update(source, true);
+    }
+
+    @Override
+    public void dataMoved(ShipmentEvent source) {
+        update(source, false);
+    }
+
+    @Override
+    public void dataChanged(ShipmentEvent source) {
+        update(source, false);
+    }
+
+    /** Get count of violations */
+    public int getViolationsCount() {
+        checkCases();
+        return repeatedCodes.size() + repeatedLocations.size() + splitCases.size() + outOfRange.size();
+    }
+
+    /** Get all violations found in the current list */
+    public List<Violation> getViolations() {
+        return getViolations(Integer.MAX_VALUE);
+    }
+
+    /** Get no more than {@param limit} violations found in the current list */
+    public List<Violation> getViolations(int limit) {
+        checkCases();
+        ArrayList<Violation> result = new ArrayList<>();
+        for (String code : repeatedCodes) {
+            if (result.size() >= limit) return result;
+            result.add(new Violation(Violation.VIOLATION_CODE, code, String.valueOf(codes.get(code))));
+        }
+        for (String location : repeatedLocations) {
+            if (result.size() >= limit) return result;
+            result.add(new Violation(Violation.VIOLATION_LOCATION, location, String.valueOf(locations.get(location))));
+        }
+        for (Map.Entry<String, Integer> split : splitCases.entrySet()) {
+            if (result.size() >= limit) return result;
+            result.add(new Violation(Violation.VIOLATION_CASE, split.getKey(), String.valueOf(split.getValue())));
+        }
+        for (Sample sample : outOfRange) {
+            if (result.size() >= limit) return result;
+            result.add(new Violation(Violation.VIOLATION_WEIGHT, sample.get(SAMPLE_CODE), sample.get(SAMPLE_WEIGHT)));
+        }
+        return result;
+    }
+
+    // check again samples of {@param event}
+    private void update(ShipmentEvent event, boolean shifted) {
+        if (shipment.getSamplesCount() == 0) {
+            clear();
+            return;
+        }
+        for (Sample sample : event.getRemoved()) {
+            remove(sample);
+        }
+        for (Sample sample : event.getSamples()) {
+            remove(sample);
+            add(sample);
+        }
+        int count = shipment.getSamplesCount();
+        int first = Math.max(event.getFirst(), 0);
+        int shift = event.getSamples().size() - event.getRemoved().size();
+        // the shift is known if the event is the only change since the previous one
+        if (shifted && (size + shift == count)) {
+            shift(first + event.getSamples().size(), shift);
+        } else if (shifted) {
+            shiftedFrom = Math.min(shiftedFrom, first);
+        }
+        size = count;
+    }
+
+    // mark cases of samples which may get to other boxes after samples from {@param from} were shifted by {@param shift}:
+    // all of them are moved by the same count of boxes or by one more, depending on their place in box, so the other
+    // cases keep their count of boxes
+    private void shift(int from, int shift) {
+        int count = shipment.getSamplesCount();
+        int capacity = shipment.getBoxCapacity();
+        int bound = Math.floorMod(shift, capacity);
+        // either part of box may be checked: a case with samples moved differently has samples in both of them
+        int lower = (bound * 2 <= capacity) ? 0 : bound;
+        int upper = (bound * 2 <= capacity) ? bound : capacity;
+        int boxes = (count - from) / capacity + 1;
+        if (capacity + (upper - lower) * boxes > count / 16) {
+            shiftedFrom = Math.min(shiftedFrom, from);
+            return;
+        }
+        // samples near the change may get to the box of samples before it or leave it
+        mark(from, Math.min(from + capacity, count));
+        if (lower == upper) return;
+        for (int box = from / capacity; box * capacity < count; box++) {
+            mark(Math.max(box * capacity + lower, from), Math.min(box * capacity + upper, count));
+        }
+    }
+
+    // check cases of samples from {@param from} to {@param to}: a case of neighbouring samples is checked at once
+    // by their places, others - on request
+    private void mark(int from, int to) {
+        int count = shipment.getSamplesCount();
+        int capacity = shipment.getBoxCapacity();
+        for (int index = from; index < to; index++) {
+            Sample sample = shipment.getSample(index);
+            Entry entry = entries.get(sample);
+            if ((entry == null) || (entry.mask == null)) continue;
+            int id = sample.getMaskId();
+            int members = cases.get(entry.mask).size();
+            int first = index;
+            while ((first > 0) && (index - first + 1 < members) && (shipment.getSample(first - 1).getMaskId() == id)) first--;
+            int last = index;
+            while ((last + 1 < count) && (last - first + 1 < members) && (shipment.getSample(last + 1).getMaskId() == id)) last++;
+            if (last - first + 1 < members) {
+                changedCases.add(entry.mask);
+                continue;
+            }
+            int boxes = last / capacity - first / capacity + 1;
+            if (boxes > (members + capacity - 1) / capacity) splitCases.put(entry.mask, boxes); else splitCases.remove(entry.mask);
+            index = last;
+        }
+    }
+
+    private void add(Sample sample) {
+        String code = sample.get(SAMPLE_CODE);
+        String location = isLocated(sample) ? sample.get(SAMPLE_LOCATION) : null;
+        String mask = sample.getMask();
+        if (NO_MASK.equals(mask)) mask = null;
+        entries.put(sample, new Entry(code, location, mask));
+
+        if (codes.merge(code, 1, Integer::sum) > 1) repeatedCodes.add(code);
+        if ((location != null) && (locations.merge(location, 1, Integer::sum) > 1)) repeatedLocations.add(location);
+        if (isOutOfRange(sample)) outOfRange.add(sample);
+        if (mask != null) {
+            cases.computeIfAbsent(mask, key -> Collections.newSetFromMap(new IdentityHashMap<>())).add(sample);
+            changedCases.add(mask);
+        }
+    }
+
+    private void remove(Sample sample) {
+        Entry entry = entries.remove(sample);
+        if (entry == null) return;
+        decrement(codes, entry.code, repeatedCodes);
+        if (entry.location != null) decrement(locations, entry.location, repeatedLocations);
+        outOfRange.remove(sample);
+        if (entry.mask != null) {
+            Set<Sample> members = cases.get(entry.mask);
+            members.remove(sample);
+            if (members.isEmpty()) cases.remove(entry.mask);
+            changedCases.add(entry.mask);
+        }
+    }
+
+    private void clear() {
+        entries.clear();
+        codes.clear();
+        locations.clear();
+        cases.clear();
+        repeatedCodes.clear();
+        repeatedLocations.clear();
+        outOfRange.clear();
+        splitCases.clear();
+        changedCases.clear();
+        shiftedFrom = Integer.MAX_VALUE;
+        size = 0;
+    }
+
+    private static void decrement(HashMap<String, Integer> counts, String key, Set<String> repeated) {
+        int count = counts.get(key) - 1;
+        if (count == 0) counts.remove(key); else counts.put(key, count);
+        if (count < 2) repeated.remove(key);
+    }
+
+    private boolean isOutOfRange(Sample sample) {
+        double weight = sample.getWeightValue();
+        return !Double.isNaN(weight) && ((weight < rangeLower) || (weight > rangeUpper));
+    }
+
+    // manually added samples may have no location
+    private static boolean isLocated(Sample sample) {
+        for (int part : LOCATION_PARTS) {
+            if (!sample.get(part).isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // check cases changed or shifted since the previous check: a case is split if its samples are in more boxes
+    // than needed for them
+    private void checkCases() {
+        int count = shipment.getSamplesCount();
+        if (shipment.getBoxCapacity() != capacity) {
+            capacity = shipment.getBoxCapacity();
+            shiftedFrom = 0;
+        }
+        // after a shift of unknown samples or of many cases all of them are checked by one pass
+        if ((shiftedFrom < count) || (changedCases.size() > count / 16)) {
+            checkAllCases();
+        } else {
+            for (String mask : changedCases) {
+                checkCase(mask);
+            }
+        }
+        // a new set: clearing a set costs as its largest size
+        if (!changedCases.isEmpty()) changedCases = new HashSet<>();
+        shiftedFrom = Integer.MAX_VALUE;
+    }
+
+    private void checkCase(String mask) {
+        Set<Sample> members = cases.get(mask);
+        splitCases.remove(mask);
+        if ((members == null) || (members.size() < 2)) return;
+        int[] boxes = new int[members.size()];
+        int count = 0;
+        for (Sample sample : members) {
+            int index = shipment.indexOf(sample);
+            if (index >= 0) boxes[count++] = index / capacity;
+        }
+        Arrays.sort(boxes, 0, count);
+        int distinct = (count == 0) ? 0 : 1;
+        for (int i = 1; i < count; i++) {
+            if (boxes[i] != boxes[i - 1]) distinct++;
+        }
+        if (distinct > (count + capacity - 1) / capacity) splitCases.put(mask, distinct);
+    }
+
+    // count boxes of every case by its mask id in the store, in the order of the list
+    private void checkAllCases() {
+        splitCases.clear();
+        int count = shipment.getSamplesCount();
+        int[] samples = new int[16];        // count of samples by mask id
+        int[] boxes = new int[16];          // count of boxes by mask id
+        int[] last = new int[16];           // index of the last sample by mask id
+        for (int index = 0; index < count; index++) {
+            int id = shipment.getSample(index).getMaskId();
+            if (id < 0) continue;
+            if (id >= samples.length) {
+                int size = Math.max(id + 1, samples.length * 2);
+                samples = Arrays.copyOf(samples, size);
+                boxes = Arrays.copyOf(boxes, size);
+                last = Arrays.copyOf(last, size);
+            }
+            if ((samples[id] == 0) || (last[id] / capacity != index / capacity)) boxes[id]++;
+            samples[id]++;
+            last[id] = index;
+        }
+        for (int id = 0; id < samples.length; id++) {
+            if ((boxes[id] < 2) || (boxes[id] <= (samples[id] + capacity - 1) / capacity)) continue;
+            String mask = shipment.getSample(last[id]).getMask();
+            if (!NO_MASK.equals(mask)) splitCases.put(mask, boxes[id]);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static ru.bioresourceslab.Sample.*;
+
+/** Двоичный файл снимка отправки (.SPA): samples with weights and packed flags, box options and shipment number.
+ * Locations and weights repeat a lot, so they are stored once in a string table and samples refer to them
+ * by index; numbers are written as varints. The file is read through memory-mapped FileChannel and checked by CRC.
+ * Layout (version 1):
+ *      magic, version, generation, rows, columns, separator, number,
+ *      strings count, strings, samples count, samples {code, weight, storage, rack, box, row, column, flags}, CRC32
+ * Excel files are for interchange only; this format is used to save and resume sessions. */
+
+public final class SnapshotFile {
+    /** Extension of snapshot files */
+    public static final String EXTENSION = ".spa";
+
+    private static final int MAGIC = 0x53504142;    // "SPAB"
+    private static final int VERSION = 1;
+    private static final int FLAG_PACKED = 1;
+    // fields of sample stored in the string table
+    private static final int[] TABLE_FIELDS = {SAMPLE_WEIGHT, SAMPLE_STORAGE, SAMPLE_RACK, SAMPLE_BOX, SAMPLE_ROW, SAMPLE_COLUMN};
+
+    private final long generation;
+    private final ShipmentSnapshot snapshot;
+
+    private SnapshotFile(long generation, ShipmentSnapshot snapshot) {
+        this.generation = generation;
+        this.snapshot = snapshot;
+    }
+
+    /** Get generation written with the snapshot (see ShipmentJournal) */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /** Get shipment snapshot; it has no identifiers and export parameters */
+    public ShipmentSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Write {@param snapshot} with {@param generation} to {@param file}.
+     * The data is written to temporary file, forced to disk and then renamed, so the file is replaced atomically */
+    public static void write(@NotNull ShipmentSnapshot snapshot, long generation, @NotNull File file) throws IOException {
+        // string table
+        HashMap<String, Integer> indexes = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        for (int index = 0; index < snapshot.getSamplesCount(); index++) {
+            Sample sample = snapshot.getSample(index);
+            if (sample == null) continue;
+            for (int field : TABLE_FIELDS) {
+                String value = sample.get(field);
+                if (indexes.putIfAbsent(value, strings.size()) == null) strings.add(value);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        boolean written = false;
+        try (FileOutputStream fileStream = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileStream, crc)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            BoxOptions boxOptions = snapshot.getBoxOptions();
+            out.writeInt(boxOptions.getRowsCount());
+            out.writeInt(boxOptions.getColumnsCount());
+            out.writeInt(boxOptions.getSeparator());
+            writeString(out, snapshot.getNumber());
+
+            writeVarInt(out, strings.size());
+            for (String value : strings) {
+                writeString(out, value);
+            }
+
+            int count = 0;
+            for (int index = 0; index < snapshot.getSamplesCount(); index++) {
+                if (snapshot.getSample(index) != null) count++;
+            }
+            writeVarInt(out, count);
+            for (int index = 0; index < snapshot.getSamplesCount(); index++) {
+                Sample sample = snapshot.getSample(index);
+                if (sample == null) continue;
+                writeString(out, sample.get(SAMPLE_CODE));
+                for (int field : TABLE_FIELDS) {
+                    writeVarInt(out, indexes.get(sample.get(field)));
+                }
+                out.writeByte(sample.getPacked() ? FLAG_PACKED : 0);
+            }
+            out.flush();
+            new DataOutputStream(fileStream).writeInt((int) crc.getValue());
+            fileStream.getFD().sync();
+            written = true;
+        } finally {
+            if (!written) temp.delete();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Read snapshot from {@param file} */
+    public static SnapshotFile read(@NotNull File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if ((size < 24) || (size > Integer.MAX_VALUE)) throw new IOException("неверный формат. ");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            // check the whole file before parsing
+            ByteBuffer data = buffer.duplicate();
+            data.limit((int) size - 4);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (buffer.getInt((int) size - 4) != (int) crc.getValue()) throw new IOException("файл поврежден. ");
+
+            if (buffer.getInt() != MAGIC) throw new IOException("неверный формат. ");
+            if (buffer.getInt() != VERSION) throw new IOException("неподдерживаемая версия. ");
+            long generation = buffer.getLong();
+            BoxOptions boxOptions = new BoxOptions(buffer.getInt(), buffer.getInt(), buffer.getInt());
+            String number = readString(buffer);
+
+            String[] strings = new String[readVarInt(buffer)];
+            for (int index = 0; index < strings.length; index++) {
+                strings[index] = readString(buffer);
+            }
+
+            Sample[] samples = new Sample[readVarInt(buffer)];
+            for (int index = 0; index < samples.length; index++) {
+                String code = readString(buffer);
+                String weight = strings[readVarInt(buffer)];
+                Sample sample = new Sample(code, weight, strings[readVarInt(buffer)], strings[readVarInt(buffer)],
+                        strings[readVarInt(buffer)], strings[readVarInt(buffer)], strings[readVarInt(buffer)]);
+                sample.setPacked((buffer.get() & FLAG_PACKED) != 0);
+                samples[index] = sample;
+            }
+            return new SnapshotFile(generation, new ShipmentSnapshot(number, null, samples, boxOptions, null, null, 0));
+        } catch (RuntimeException e) {
+            throw new IOException("неверный формат. ", e);
+        }
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw new IllegalStateException("varint is too long");
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readVarInt(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,32 @@
+package ru.bioresourceslab;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Reads samples from session snapshot (.SPA, see SnapshotFile) with their weights and packed statuses.
+ * The file has no header, so identifiers are not used. Number and box options of the session are kept
+ * to be restored after the list is loaded (see Shipment.restoreOptions) */
+
+public class SnapshotListReader extends ListReader {
+
+    private ShipmentSnapshot snapshot;      // null until the file is read
+
+    public SnapshotListReader(Sample identifiers) {
+        super(identifiers);
+    }
+
+    @Override
+    protected void parse(@NotNull File file) throws IOException {
+        snapshot = SnapshotFile.read(file).getSnapshot();
+        for (int index = 0; (index < snapshot.getSamplesCount()) && !stopped(); index++) {
+            accept(snapshot.getSample(index));
+        }
+    }
+
+    /** Get the read snapshot; null if the file is not read yet */
+    public ShipmentSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
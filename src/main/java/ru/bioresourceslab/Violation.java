@@ -0,0 +1,49 @@
+package ru.bioresourceslab;
+
+import org.intellij.lang.annotations.MagicConstant;
+
+/** Нарушение в списке отправки, найденное при проверке (см. ShipmentValidator).
+ * The violation is a copy, it is not changed with the shipment. */
+
+public final class Violation {
+    /** Identifiers of violation types */
+    public static final int VIOLATION_CODE = 0;         // several samples have one code
+    public static final int VIOLATION_LOCATION = 1;     // several samples are taken from one place
+    public static final int VIOLATION_CASE = 2;         // samples of a case are in more boxes than needed
+    public static final int VIOLATION_WEIGHT = 3;       // weight of a sample is out of the range
+
+    private final int type;
+    private final String key;
+    private final String value;
+
+    Violation(@MagicConstant(intValues = {VIOLATION_CODE, VIOLATION_LOCATION, VIOLATION_CASE, VIOLATION_WEIGHT}) int type,
+              String key, String value) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /** Get the code, the location or the mask of case the violation is about */
+    public String getKey() {
+        return key;
+    }
+
+    /** Get the count of samples, the count of boxes or the weight, according to the type */
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case VIOLATION_CODE: return "Повторяющийся код: " + key + " (образцов: " + value + ")";
+            case VIOLATION_LOCATION: return "Повторяющееся место хранения: " + key + " (образцов: " + value + ")";
+            case VIOLATION_CASE: return "Случай в разных коробках: " + key + " (коробок: " + value + ")";
+            default: return "Вес вне диапазона: " + key + " (" + value + ")";
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.bioresourceslab;
+
+import org.apache.poi.ss.usermodel.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Reads samples list from .XLS or .XLSX file loading the whole workbook into memory.
+ * Cells are read by their type according to ImportSchema */
+
+public class WorkbookListReader extends ListReader {
+
+    public WorkbookListReader(Sample identifiers) {
+        super(identifiers);
+    }
+
+    @Override
+    protected void parse(@NotNull File file) throws IOException {
+        Workbook workbook;
+        try {
+            workbook = WorkbookFactory.create(file, null, true);
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("не удалось открыть файл. ", e);
+        }
+
+        try {
+            Sheet sheet = workbook.getSheetAt(0);
+            for (int index = sheet.getFirstRowNum(); (index <= sheet.getLastRowNum()) && !stopped(); index++) {
+                Row fileRow = sheet.getRow(index);
+                if (fileRow == null) continue;
+                ImportSchema schema = getSchema();
+                if (schema == null) {
+                    // header: all cells
+                    for (int column = Math.max(fileRow.getFirstCellNum(), 0); column < fileRow.getLastCellNum(); column++) {
+                        putCell(column, ImportSchema.cellText(fileRow.getCell(column)));
+                    }
+                } else {
+                    // data: only columns of the schema
+                    for (int column = 0; column < schema.getWidth(); column++) {
+                        if (schema.getField(column) != -1) putCell(column, ImportSchema.cellText(fileRow.getCell(column)));
+                    }
+                }
+                endRow();
+            }
+        } finally {
+            workbook.close();
+        }
+    }
+}
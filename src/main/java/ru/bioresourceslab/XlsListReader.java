@@ -0,0 +1,139 @@
+package ru.bioresourceslab;
+
+import org.apache.poi.hssf.eventusermodel.*;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Reads samples list from .XLS file with HSSF event API: records of the first sheet are processed
+ * as they are read from the file, the workbook model is never built */
+
+public class XlsListReader extends ListReader {
+    private static final short CONTINUE = 0;
+    private static final short ABORT = 1;
+
+    public XlsListReader(Sample identifiers) {
+        super(identifiers);
+    }
+
+    @Override
+    protected void parse(@NotNull File file) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(file, true)) {
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(new RecordHandler());
+            new HSSFEventFactory().abortableProcessWorkbookEvents(request, fs);
+        } catch (HSSFUserException | RuntimeException e) {
+            throw new IOException("не удалось открыть файл. ", e);
+        }
+    }
+
+    private class RecordHandler extends AbortableHSSFListener {
+        private SSTRecord sst;
+        private int sheetCount = 0;
+        private int currentRow = -1;
+        private boolean waitingString = false;   // formula with string result: value is in the next StringRecord
+        private int formulaColumn;
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            if (stopped()) return ABORT;
+
+            switch (record.getSid()) {
+                case BOFRecord.sid: {
+                    if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                        // only the first sheet is read
+                        if (++sheetCount > 1) return ABORT;
+                    }
+                    break;
+                }
+                case EOFRecord.sid: {
+                    if (sheetCount == 1) {
+                        flushRow();
+                        return ABORT;
+                    }
+                    break;
+                }
+                case SSTRecord.sid: {
+                    sst = (SSTRecord) record;
+                    break;
+                }
+                case LabelSSTRecord.sid: {
+                    LabelSSTRecord label = (LabelSSTRecord) record;
+                    put(label, (sst == null) ? "" : sst.getString(label.getSSTIndex()).getString());
+                    break;
+                }
+                case LabelRecord.sid: {
+                    LabelRecord label = (LabelRecord) record;
+                    put(label, label.getValue());
+                    break;
+                }
+                case NumberRecord.sid: {
+                    NumberRecord number = (NumberRecord) record;
+                    put(number, ImportSchema.numberText(number.getValue()));
+                    break;
+                }
+                case BoolErrRecord.sid: {
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+                    put(boolErr, boolErr.isBoolean() ? (boolErr.getBooleanValue() ? "TRUE" : "FALSE") : "");
+                    break;
+                }
+                case FormulaRecord.sid: {
+                    FormulaRecord formula = (FormulaRecord) record;
+                    if (formula.hasCachedResultString()) {
+                        put(formula, "");
+                        waitingString = true;
+                        formulaColumn = formula.getColumn();
+                    } else if (cachedType(formula) == CellType.NUMERIC) {
+                        put(formula, ImportSchema.numberText(formula.getValue()));
+                    } else if (cachedType(formula) == CellType.BOOLEAN) {
+                        put(formula, formula.getCachedBooleanValue() ? "TRUE" : "FALSE");
+                    }
+                    break;
+                }
+                case StringRecord.sid: {
+                    if (waitingString && (sheetCount == 1)) {
+                        putCell(formulaColumn, ((StringRecord) record).getString());
+                        waitingString = false;
+                    }
+                    break;
+                }
+            } // end switch
+            return CONTINUE;
+        }
+
+        // type of cached result of {@param formula}: the record keeps the code of the type in the file
+        // (0 - number, 1 - string, 4 - boolean, 5 - error), and the conversions of CellType are deprecated
+        private CellType cachedType(FormulaRecord formula) {
+            switch (formula.getCachedResultType()) {
+                case 0: return CellType.NUMERIC;
+                case 1: return CellType.STRING;
+                case 4: return CellType.BOOLEAN;
+                case 5: return CellType.ERROR;
+                default: return CellType.BLANK;
+            }
+        }
+
+        private void put(CellValueRecordInterface cell, String value) {
+            if (sheetCount != 1) return;
+            rowCheck(cell.getRow());
+            if (isNeeded(cell.getColumn())) putCell(cell.getColumn(), value);
+        }
+
+        // cells come sorted by rows, so the row is finished when a cell of another row appears
+        private void rowCheck(int row) {
+            if (row != currentRow) {
+                flushRow();
+                currentRow = row;
+            }
+        }
+
+        private void flushRow() {
+            if (currentRow != -1) endRow();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.bioresourceslab;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.jetbrains.annotations.NotNull;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/** Reads samples list from .XLSX file with XSSF event model (SAX): rows are parsed one by one
+ * and the workbook DOM is never built, so memory use doesn't depend on file size */
+
+public class XlsxListReader extends ListReader {
+
+    public XlsxListReader(Sample identifiers) {
+        super(identifiers);
+    }
+
+    @Override
+    protected void parse(@NotNull File file) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader reader = new XSSFReader(pkg);
+            StylesTable styles = reader.getStylesTable();
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext()) throw new IOException("файл не содержит данных! ");
+
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings, new RowHandler(), new NumberFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            } catch (StopParsing e) {
+                // reading stopped by reader itself
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException | RuntimeException e) {
+            if (e.getCause() instanceof StopParsing) return;
+            throw new IOException("не удалось открыть файл. ", e);
+        }
+    }
+
+    // numbers are passed as plain values instead of being formatted by cell style
+    private static class NumberFormatter extends DataFormatter {
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            return ImportSchema.numberText(value);
+        }
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+            return ImportSchema.numberText(value);
+        }
+    }
+
+    // thrown from handler to break SAX parsing when reading is stopped
+    private static class StopParsing extends RuntimeException {
+        StopParsing() {
+            super(null, null, false, false);
+        }
+    }
+
+    private class RowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private int column;
+
+        @Override
+        public void startRow(int rowNum) {
+            if (stopped()) throw new StopParsing();
+            column = -1;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            XlsxListReader.this.endRow();
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            // reference may be missing in files from some generators
+            column = (cellReference == null) ? column + 1 : new CellReference(cellReference).getCol();
+            if (isNeeded(column)) putCell(column, formattedValue);
+        }
+    }
+}
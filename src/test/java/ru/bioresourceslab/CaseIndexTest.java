@@ -0,0 +1,58 @@
+package ru.bioresourceslab;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/** Case bounds after changes of the list, checked through the shipment. */
+
+public class CaseIndexTest {
+
+    // samples of cases P0..P4 by two: 0-1, 2-3, ..., 8-9
+    private static Shipment createShipment() {
+        Shipment shipment = new Shipment();
+        ArrayList<Sample> list = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            list.add(new Sample("P" + (i / 2) + "T" + i, "", "st", "rack", "box", "1", String.valueOf(i)));
+        }
+        shipment.appendSamples(list);
+        return shipment;
+    }
+
+    @Test
+    public void tailRemovalInsideCase() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            Shipment shipment = createShipment();
+            assertEquals(9, shipment.getLastIndex(8));
+            assertEquals(2, shipment.getCaseSize(8));
+
+            shipment.removeSample(9);
+            assertEquals(8, shipment.getLastIndex(8));
+            assertEquals(8, shipment.getFirstIndex(8));
+            assertEquals(1, shipment.getCaseSize(8));
+            assertEquals(7, shipment.getLastIndex(6));
+        });
+    }
+
+    @Test
+    public void tailRangeRemovalAndAppend() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            Shipment shipment = createShipment();
+            assertEquals(2, shipment.getCaseSize(6));
+            shipment.removeRange(7, 10);
+            assertEquals(6, shipment.getLastIndex(6));
+            assertEquals(1, shipment.getCaseSize(6));
+
+            // a sample of the same case appended to the end continues it
+            ArrayList<Sample> tail = new ArrayList<>();
+            tail.add(new Sample("P3T7", "", "st", "rack", "box", "1", "7"));
+            shipment.appendSamples(tail);
+            assertEquals(7, shipment.getLastIndex(6));
+            assertEquals(6, shipment.getFirstIndex(7));
+            assertEquals(2, shipment.getCaseSize(7));
+        });
+    }
+}
@@ -0,0 +1,125 @@
+package ru.bioresourceslab;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static ru.bioresourceslab.Sample.*;
+
+/** Stress test of the single-writer model: many threads change and query one shipment at once,
+ * then the list, its indexes and the events fired are checked to agree with each other. */
+
+public class ShipmentConcurrencyTest {
+    private static final int INITIAL = 2000;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 1500;
+
+    private final AtomicInteger nextCode = new AtomicInteger();
+
+    private Sample newSample() {
+        int code = nextCode.getAndIncrement();
+        return new Sample("S" + code, "", "st" + (code % 7), "rack" + (code % 5), "box" + code, "1", "1");
+    }
+
+    @Test
+    public void concurrentChangesKeepShipmentConsistent() throws Exception {
+        Shipment shipment = new Shipment();
+        ArrayList<Sample> list = new ArrayList<>();
+        for (int i = 0; i < INITIAL; i++) list.add(newSample());
+        shipment.appendSamples(list);
+
+        AtomicLong events = new AtomicLong();
+        AtomicLong expectedCount = new AtomicLong(shipment.getSamplesCount());
+        AtomicInteger offWriter = new AtomicInteger();
+        long changesBefore = shipment.getChangesCount();
+        shipment.addListener(new ShipmentListener() {
+            @Override
+            public void defaultAction(ShipmentEvent source) {
+                if (!SwingUtilities.isEventDispatchThread()) offWriter.incrementAndGet();
+                events.incrementAndGet();
+            }
+
+            @Override
+            public void dataAdded(ShipmentEvent source) {
+                expectedCount.addAndGet(source.getSamples().size() - source.getRemoved().size());
+            }
+
+            @Override
+            public void dataRemoved(ShipmentEvent source) {
+                expectedCount.addAndGet(source.getSamples().size() - source.getRemoved().size());
+            }
+        });
+
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int op = 0; op < OPERATIONS; op++) {
+                        int count = Math.max(shipment.getSamplesCount(), 1);
+                        int index = random.nextInt(count);
+                        switch (random.nextInt(9)) {
+                            case 0: shipment.setSampleWeight(index, "0." + op); break;
+                            case 1: shipment.revertSampleStatus(index); break;
+                            case 2: shipment.moveSample(index, random.nextInt(count)); break;
+                            case 3: shipment.addSamples(Collections.singletonList(newSample()), index); break;
+                            case 4: shipment.removeSample(index); break;
+                            case 5: shipment.replaceRange(index, index + 2, Collections.singletonList(newSample())); break;
+                            case 6: {
+                                ShipmentSnapshot snapshot = shipment.snapshot();
+                                for (int i = 0; i < snapshot.getSamplesCount(); i++) assertNotNull(snapshot.getSample(i));
+                                break;
+                            }
+                            case 7: {
+                                int[] picks = shipment.getPickList(null, null, null, false);
+                                boolean[] seen = new boolean[picks.length];
+                                for (int pick : picks) {
+                                    assertTrue(pick >= 0 && pick < picks.length && !seen[pick]);
+                                    seen[pick] = true;
+                                }
+                                break;
+                            }
+                            default: {
+                                int next = shipment.getNextIndex(index, Shipment.NEXT_DEFAULT);
+                                shipment.getCaseSize(index);
+                                shipment.findByCode("S" + random.nextInt(nextCode.get()));
+                                assertTrue(next >= -1);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "stress " + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(Collections.emptyList(), errors);
+
+        SwingUtilities.invokeAndWait(() -> {
+            int count = shipment.getSamplesCount();
+            assertEquals(expectedCount.get(), count);
+            assertEquals(count, shipment.getListModel().getSize());
+            for (int index = 0; index < count; index++) {
+                assertEquals(index, shipment.findByCode(shipment.getSample(index).get(SAMPLE_CODE)));
+            }
+            assertEquals(count, shipment.getPickList(null, null, null, false).length);
+            int unpacked = 0;
+            for (int index = 0; index < count; index++) {
+                if (shipment.sampleIsNotPacked(index)) unpacked++;
+            }
+            assertEquals(unpacked, shipment.getPickList(null, null, null, true).length);
+        });
+        assertEquals(0, offWriter.get());
+        assertEquals(events.get(), shipment.getChangesCount() - changesBefore);
+    }
+}
@@ -0,0 +1,134 @@
+package ru.bioresourceslab;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/** Replay of the journal after changes made during and after a background compaction. */
+
+public class ShipmentJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile;
+    private File snapshotFile;
+    private Shipment shipment;
+    private ShipmentJournal journal;
+    private final Random random = new Random(7);
+    private int nextCode = 0;
+
+    @Before
+    public void open() throws IOException {
+        journalFile = new File(folder.getRoot(), "test.journal");
+        snapshotFile = new File(folder.getRoot(), "test" + SnapshotFile.EXTENSION);
+        shipment = createShipment();
+        journal = ShipmentJournal.open(journalFile, snapshotFile);
+        journal.replay(shipment);
+        shipment.setJournal(journal);
+    }
+
+    @After
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private static Shipment createShipment() {
+        Shipment shipment = new Shipment();
+        shipment.setWriter(AbstractShipment.CALLER_WRITER);
+        return shipment;
+    }
+
+    private void change(int count) {
+        for (int i = 0; i < count; i++) {
+            int size = shipment.getSamplesCount();
+            int index = (size == 0) ? 0 : random.nextInt(size);
+            switch ((size < 50) ? 0 : random.nextInt(5)) {
+                case 0: {
+                    ArrayList<Sample> list = new ArrayList<>();
+                    for (int k = 0; k < 20; k++) {
+                        list.add(new Sample("P" + nextCode + "T" + (nextCode++), "", "st", "rack", "box", "1", String.valueOf(k)));
+                    }
+                    shipment.addSamples(list, index);
+                    break;
+                }
+                case 1: shipment.removeSample(index); break;
+                case 2: shipment.setSampleWeight(index, "0." + i); break;
+                case 3: shipment.revertSampleStatus(index); break;
+                default: shipment.moveSample(index, random.nextInt(size));
+            }
+        }
+    }
+
+    private static String dump(Shipment shipment) {
+        StringBuilder result = new StringBuilder(shipment.getNumber()).append('/').append(shipment.getBoxCapacity());
+        for (int index = 0; index < shipment.getSamplesCount(); index++) {
+            Sample sample = shipment.getSample(index);
+            result.append(';').append(sample.get(Sample.SAMPLE_ALL)).append(sample.getPacked());
+        }
+        return result.toString();
+    }
+
+    // state restored from the files as after a crash
+    private String replayed() throws IOException {
+        journal.sync();
+        Shipment restored = createShipment();
+        ShipmentJournal other = ShipmentJournal.open(journalFile, snapshotFile);
+        try {
+            other.replay(restored);
+        } finally {
+            other.close();
+        }
+        return dump(restored);
+    }
+
+    @Test
+    public void recordsAfterCheckpointSurviveCompaction() throws IOException {
+        change(200);
+        ShipmentSnapshot snapshot = shipment.snapshot();
+        ShipmentJournal.Checkpoint checkpoint = journal.checkpoint();
+        assertNotNull(checkpoint);
+        // changes made while the snapshot file is written
+        change(100);
+        shipment.setNumber("N-1");
+        shipment.setBoxOptions(5, 4, 1);
+        journal.compact(snapshot, checkpoint);
+        assertEquals(dump(shipment), replayed());
+
+        change(100);
+        assertEquals(dump(shipment), replayed());
+    }
+
+    @Test
+    public void stopBetweenSnapshotAndRestart() throws IOException {
+        change(200);
+        ShipmentSnapshot snapshot = shipment.snapshot();
+        assertNotNull(journal.checkpoint());
+        change(100);
+        shipment.setBoxOptions(3, 3, 0);
+        // the snapshot of the next generation is written, the journal is not restarted yet
+        SnapshotFile.write(snapshot, 1, snapshotFile);
+        assertEquals(dump(shipment), replayed());
+    }
+
+    @Test
+    public void staleCheckpointIsIgnored() throws IOException {
+        change(200);
+        ShipmentSnapshot snapshot = shipment.snapshot();
+        ShipmentJournal.Checkpoint checkpoint = journal.checkpoint();
+        change(50);
+        // the journal is compacted by the writer meanwhile
+        journal.compact(shipment.snapshot());
+        change(50);
+        journal.compact(snapshot, checkpoint);
+        assertEquals(dump(shipment), replayed());
+    }
+}
@@ -0,0 +1,82 @@
+package ru.bioresourceslab;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/** Split cases found by the validator after insertions and removals, compared with a check of the whole list. */
+
+public class ShipmentValidatorTest {
+
+    private static Sample sample(int patient, int number) {
+        return new Sample("P" + patient + "T" + number, "", "st", "rack", "box", "1", String.valueOf(number));
+    }
+
+    private static Map<String, Integer> splitCases(List<Violation> violations) {
+        TreeMap<String, Integer> result = new TreeMap<>();
+        for (Violation violation : violations) {
+            if (violation.getType() == Violation.VIOLATION_CASE) result.put(violation.getKey(), Integer.valueOf(violation.getValue()));
+        }
+        return result;
+    }
+
+    // count boxes of every case of the list
+    private static Map<String, Integer> expectedSplitCases(Shipment shipment) {
+        int capacity = shipment.getBoxCapacity();
+        HashMap<String, List<Integer>> cases = new HashMap<>();
+        for (int index = 0; index < shipment.getSamplesCount(); index++) {
+            String mask = shipment.getSample(index).getMask();
+            if (!Sample.NO_MASK.equals(mask)) cases.computeIfAbsent(mask, key -> new ArrayList<>()).add(index / capacity);
+        }
+        TreeMap<String, Integer> result = new TreeMap<>();
+        for (Map.Entry<String, List<Integer>> entry : cases.entrySet()) {
+            int size = entry.getValue().size();
+            long boxes = entry.getValue().stream().distinct().count();
+            if (boxes > (size + capacity - 1) / capacity) result.put(entry.getKey(), (int) boxes);
+        }
+        return result;
+    }
+
+    @Test
+    public void casesAfterShifts() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            Random random = new Random(3);
+            Shipment shipment = new Shipment();
+            shipment.setBoxOptions(9, 9, 1);
+            ShipmentValidator validator = new ShipmentValidator(shipment);
+            ArrayList<Sample> list = new ArrayList<>();
+            int number = 0;
+            // cases of neighbouring samples and a few scattered ones
+            for (; number < 5000; number++) list.add(sample((number % 10 == 0) ? random.nextInt(1000) : number / 5, number));
+            shipment.appendSamples(list);
+            for (int step = 0; step < 500; step++) {
+                int index = random.nextInt(shipment.getSamplesCount());
+                switch (random.nextInt(5)) {
+                    case 0: shipment.removeSample(index); break;
+                    case 1: shipment.removeRange(index, index + 1 + random.nextInt(20)); break;
+                    case 2: shipment.removeRange(index, index + shipment.getBoxCapacity()); break;
+                    case 3: shipment.addSamples(Collections.singletonList(sample(random.nextInt(1000), number++)), index); break;
+                    default: {
+                        ArrayList<Sample> added = new ArrayList<>();
+                        int patient = random.nextInt(1000);
+                        for (int i = random.nextInt(100); i >= 0; i--) added.add(sample(patient, number++));
+                        shipment.addSamples(added, index);
+                    }
+                }
+                if (step % 2 == 0) {
+                    assertEquals("step " + step, expectedSplitCases(shipment), splitCases(validator.getViolations()));
+                }
+            }
+            assertEquals(expectedSplitCases(shipment), splitCases(validator.getViolations()));
+        });
+    }
+}